@@ -0,0 +1,8 @@
+package koth.game;
+
+/**
+ * A generator implementing this interface always creates the same board for a given number of teams, hence its boards
+ * may be cached.
+ */
+public interface Deterministic {
+}
@@ -0,0 +1,354 @@
+package koth.game;
+
+import koth.util.Vector;
+
+import java.util.*;
+
+/**
+ * Incremental evaluation of a position, from the point of view of one team.
+ * An evaluation is a <code>Game.Listener</code>: features are updated with deltas when pawns are moved, changed, damaged or killed,
+ * which means that evaluating a child position costs time proportional to what changed, not to the board.
+ * Use <code>mark</code> and <code>rollback</code> to evaluate several children of the same position.
+ */
+public final class Evaluation implements Game.Listener {
+
+    /**
+     * A feature is defined by the contribution of each living pawn.
+     * The value of a feature is the sum of contributions obtained when adding pawns one by one, so contributions must
+     * include all interactions of the pawn with the pawns already in position (e.g. pairwise terms).
+     * When an event is received, the pawn is not in the position, and the returned delta is added to the feature value.
+     */
+    public static abstract class Feature {
+
+        /**
+         * Get contribution of given living pawn, in current position (which does not contain this pawn).
+         */
+        public abstract double contribution(Evaluation evaluation, Pawn pawn);
+
+        /**
+         * Get delta when a pawn changed location (and nothing else).
+         */
+        public double moved(Evaluation evaluation, Pawn before, Pawn after) {
+            return updated(evaluation, before, after);
+        }
+
+        /**
+         * Get delta when a pawn changed stance (and nothing else).
+         */
+        public double changed(Evaluation evaluation, Pawn before, Pawn after) {
+            return updated(evaluation, before, after);
+        }
+
+        /**
+         * Get delta when a pawn lost health points (it may also have moved).
+         */
+        public double damaged(Evaluation evaluation, Pawn before, Pawn after) {
+            return updated(evaluation, before, after);
+        }
+
+        /**
+         * Get delta when a pawn died.
+         */
+        public double died(Evaluation evaluation, Pawn before) {
+            return -contribution(evaluation, before);
+        }
+
+        /**
+         * Get delta for a generic update, by replacing the contribution of the pawn.
+         */
+        protected double updated(Evaluation evaluation, Pawn before, Pawn after) {
+            return contribution(evaluation, after) - contribution(evaluation, before);
+        }
+
+    }
+
+    /**
+     * Health points of allies, minus health points of enemies.
+     */
+    public static final class Health extends Feature {
+
+        @Override
+        public double contribution(Evaluation evaluation, Pawn pawn) {
+            return evaluation.sign(pawn) * pawn.getHealth();
+        }
+
+        @Override
+        public double moved(Evaluation evaluation, Pawn before, Pawn after) {
+            return 0;
+        }
+
+        @Override
+        public double changed(Evaluation evaluation, Pawn before, Pawn after) {
+            return 0;
+        }
+
+    }
+
+    /**
+     * Number of void tiles next to enemies, minus number of void tiles next to allies.
+     */
+    public static final class Edge extends Feature {
+
+        @Override
+        public double contribution(Evaluation evaluation, Pawn pawn) {
+            int count = 0;
+            for (Move m : Move.getNonzeros())
+                if (evaluation.isVoid(pawn.getLocation().add(m)))
+                    ++count;
+            return -evaluation.sign(pawn) * count;
+        }
+
+        @Override
+        public double changed(Evaluation evaluation, Pawn before, Pawn after) {
+            return 0;
+        }
+
+    }
+
+    /**
+     * Number of threats on enemies, minus number of threats on allies.
+     * A threat is a pair of adjacent enemies, where one of them has the strong stance.
+     */
+    public static final class Threat extends Feature {
+
+        @Override
+        public double contribution(Evaluation evaluation, Pawn pawn) {
+            double value = 0;
+            for (Move m : Move.getNonzeros()) {
+                Pawn other = evaluation.getPawn(pawn.getLocation().add(m));
+                if (other == null || other.getTeam() == pawn.getTeam())
+                    continue;
+                if (other.getStance().getWeak() == pawn.getStance())
+                    value -= evaluation.sign(pawn);
+                else if (pawn.getStance().getWeak() == other.getStance())
+                    value -= evaluation.sign(other);
+            }
+            return value;
+        }
+
+    }
+
+    /**
+     * Sum of Manhattan distances between allies and enemies.
+     */
+    public static final class Distance extends Feature {
+
+        @Override
+        public double contribution(Evaluation evaluation, Pawn pawn) {
+            double value = 0;
+            for (Pawn other : evaluation.getPawns())
+                if ((other.getTeam() == evaluation.getTeam()) != (pawn.getTeam() == evaluation.getTeam()))
+                    value += pawn.getLocation().manhattan(other.getLocation());
+            return value;
+        }
+
+        @Override
+        public double changed(Evaluation evaluation, Pawn before, Pawn after) {
+            return 0;
+        }
+
+        @Override
+        public double damaged(Evaluation evaluation, Pawn before, Pawn after) {
+            return before.getLocation().equals(after.getLocation()) ? 0 : updated(evaluation, before, after);
+        }
+
+    }
+
+    private final int team;
+    private final Feature[] features;
+    private final double[] weights;
+    private final double[] values;
+    private Board board;
+    private final Map<Vector, Pawn> coords;
+    private final Map<Pawn, Pawn> pawns;
+
+    // Undo journal (pairs of before/after pawns) and saved values for each mark
+    private final List<Pawn> journal;
+    private int[] marks;
+    private double[] saved;
+    private int depth;
+
+    /**
+     * Create a new evaluation for given team, with specified features and weights.
+     */
+    public Evaluation(int team, List<? extends Feature> features, double[] weights) {
+        if (features == null || weights == null || features.contains(null))
+            throw new NullPointerException();
+        if (features.size() != weights.length)
+            throw new IllegalArgumentException("Expected " + features.size() + " weights");
+        this.team = team;
+        this.features = features.toArray(new Feature[features.size()]);
+        this.weights = weights.clone();
+        values = new double[weights.length];
+        coords = new HashMap<Vector, Pawn>();
+        pawns = new HashMap<Pawn, Pawn>();
+        journal = new ArrayList<Pawn>();
+        marks = new int[16];
+        saved = new double[16 * values.length];
+        depth = 0;
+    }
+
+    /**
+     * Create a new evaluation for given team, with default features (health, edge, threat and distance).
+     */
+    public Evaluation(int team) {
+        this(team, Arrays.asList(new Health(), new Edge(), new Threat(), new Distance()), new double[] {1.0, 0.25, 0.5, 0.0});
+    }
+
+    /**
+     * Compute all features from scratch for given game. Marks are discarded.
+     */
+    public void initialize(Game game) {
+        board = game.getBoard();
+        coords.clear();
+        pawns.clear();
+        journal.clear();
+        depth = 0;
+        Arrays.fill(values, 0);
+        for (Pawn p : game.getPawnList()) {
+            for (int i = 0; i < features.length; ++i)
+                values[i] += features[i].contribution(this, p);
+            add(p);
+        }
+    }
+
+    /**
+     * Get the team for which this evaluation is computed.
+     */
+    public int getTeam() {
+        return team;
+    }
+
+    /**
+     * Get <code>1</code> for allies, <code>-1</code> for enemies.
+     */
+    public int sign(Pawn pawn) {
+        return pawn.getTeam() == team ? 1 : -1;
+    }
+
+    /**
+     * Get whether specified location is not a tile.
+     */
+    public boolean isVoid(Vector location) {
+        return board.isVoid(location);
+    }
+
+    /**
+     * Get pawn at given location, in current position (or null if none).
+     */
+    public Pawn getPawn(Vector location) {
+        return coords.get(location);
+    }
+
+    /**
+     * Get living pawns of current position.
+     */
+    public Collection<Pawn> getPawns() {
+        return Collections.unmodifiableCollection(coords.values());
+    }
+
+    /**
+     * Get weighted sum of all features.
+     */
+    public double getValue() {
+        double value = 0;
+        for (int i = 0; i < values.length; ++i)
+            value += weights[i] * values[i];
+        return value;
+    }
+
+    /**
+     * Get raw value of given feature.
+     */
+    public double getValue(int feature) {
+        return values[feature];
+    }
+
+    /**
+     * Save current state, and return an identifier to be used with <code>rollback</code>.
+     */
+    public int mark() {
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, depth * 2);
+            saved = Arrays.copyOf(saved, depth * 2 * values.length);
+        }
+        marks[depth] = journal.size();
+        System.arraycopy(values, 0, saved, depth * values.length, values.length);
+        return depth++;
+    }
+
+    /**
+     * Restore state as it was when given mark was created. This mark and all later ones are discarded.
+     */
+    public void rollback(int mark) {
+        if (mark < 0 || mark >= depth)
+            throw new IllegalArgumentException("Invalid mark " + mark);
+        for (int i = journal.size() - 2; i >= marks[mark]; i -= 2) {
+            Pawn before = journal.get(i), after = journal.get(i + 1);
+            remove(after);
+            add(before);
+        }
+        journal.subList(marks[mark], journal.size()).clear();
+        System.arraycopy(saved, mark * values.length, values, 0, values.length);
+        depth = mark;
+    }
+
+    /**
+     * Evaluate the position obtained after given action, without changing current state.
+     */
+    public double evaluate(Game game, Action action) {
+        int mark = mark();
+        game.updated(action, this);
+        double value = getValue();
+        rollback(mark);
+        return value;
+    }
+
+    private void add(Pawn pawn) {
+        if (pawn.isAlive()) {
+            pawns.put(pawn, pawn);
+            coords.put(pawn.getLocation(), pawn);
+        }
+    }
+
+    private Pawn remove(Pawn pawn) {
+        Pawn current = pawns.remove(pawn);
+        if (current != null)
+            coords.remove(current.getLocation());
+        return current;
+    }
+
+    @Override
+    public void updated(Pawn before, Pawn after) {
+        Pawn current = remove(before);
+        if (current == null)
+            return;
+        if (depth > 0) {
+            journal.add(current);
+            journal.add(after);
+        }
+        for (int i = 0; i < features.length; ++i) {
+            Feature f = features[i];
+            double delta;
+            if (after.isDead())
+                delta = f.died(this, current);
+            else if (after.getHealth() != current.getHealth())
+                delta = f.damaged(this, current, after);
+            else if (!after.getLocation().equals(current.getLocation()))
+                delta = f.moved(this, current, after);
+            else if (after.getStance() != current.getStance())
+                delta = f.changed(this, current, after);
+            else
+                delta = 0;
+            values[i] += delta;
+        }
+        add(after);
+    }
+
+    @Override
+    public void frame() {}
+
+    @Override
+    public void done(Game before, Game after) {}
+
+}
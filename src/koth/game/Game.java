@@ -36,6 +36,7 @@ public final class Game {
     private final Set<Pawn> pawns;
     private final Map<Vector, Pawn> coords;
     private final Map<Integer, Set<Pawn>> teams;
+    private long hash;
 
     /**
      * Creates a new game state, with given board and pawns.
@@ -381,6 +382,39 @@ public final class Game {
         return updated(action, null);
     }
 
+    /**
+     * Get a 64-bit hash of pawns (location, team, stance and health), which does not depend on pawn identifiers.
+     * Unlike <code>hashCode</code>, this value is stable across runs and can be stored.
+     */
+    public long getHash() {
+        if (hash == 0) {
+            long h = 0x9e3779b97f4a7c15L;
+            for (Pawn p : pawns)
+                h += getHash(p);
+            hash = h == 0 ? 1 : h;
+        }
+        return hash;
+    }
+
+    /**
+     * Get the term of given pawn in the game hash. Since terms are summed, the hash can be updated incrementally, by
+     * subtracting the term of a pawn before an update and adding the term after it.
+     */
+    public static long getHash(Pawn p) {
+        long v = ((long)p.getLocation().getX() << 40) ^ ((long)(p.getLocation().getY() & 0xffffff) << 16) ^
+            ((p.getTeam() & 0xf) << 12) ^ (p.getStance().ordinal() << 10) ^ (p.getHealth() & 0x3ff);
+        return mix(v);
+    }
+
+    /**
+     * Scramble bits of given value (SplitMix64 finalizer).
+     */
+    public static long mix(long v) {
+        v = (v ^ (v >>> 30)) * 0xbf58476d1ce4e5b9L;
+        v = (v ^ (v >>> 27)) * 0x94d049bb133111ebL;
+        return v ^ (v >>> 31);
+    }
+
     @Override
     public boolean equals(Object o) {
         return !(o == null || o.getClass() != Game.class) && equals((Game)o);
@@ -0,0 +1,13 @@
+package koth.game;
+
+/**
+ * An AI implementing this interface may be reused for several games, instead of being instantiated for each game.
+ */
+public interface Resettable {
+
+    /**
+     * Called before <code>initialize</code>, and must clear any state from previous games.
+     */
+    public void reset();
+
+}
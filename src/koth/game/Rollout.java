@@ -0,0 +1,633 @@
+package koth.game;
+
+import koth.util.Vector;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Fast playout engine, operating on a primitive and mutable copy of a game.
+ * Tiles are stored in a padded grid of cells, pawns in parallel arrays. Once loaded, playing does not allocate.
+ * Rules are the same as <code>Game.updated</code> and <code>Simulator.play</code> (including the stale limit and its
+ * adjudication, but positions are not hashed, hence repetitions are not detected).
+ * A rollout is not thread-safe, but it is cheap to have one per thread.
+ */
+public final class Rollout {
+
+    /**
+     * A cheap policy, used to choose actions during a rollout.
+     */
+    public static interface Policy {
+
+        /**
+         * Given the rollout state, current team and remaining action points, return the next action.
+         * Actions are encoded using <code>Rollout.pack</code>; a negative value ends the turn.
+         */
+        public int play(Rollout rollout, int team, int actions);
+
+    }
+
+    /**
+     * Uniform random policy: choose a random pawn, stance and move, without walking into the void.
+     * This is the primitive equivalent of <code>koth.user.jlb.Derp</code>.
+     */
+    public static final class RandomPolicy implements Policy {
+
+        private static final RandomPolicy instance = new RandomPolicy();
+
+        /**
+         * Get singleton instance (this policy is stateless, randomness comes from the rollout).
+         */
+        public static RandomPolicy getInstance() {
+            return instance;
+        }
+
+        private RandomPolicy() {}
+
+        @Override
+        public int play(Rollout rollout, int team, int actions) {
+            int count = rollout.getPawnCount(team);
+            if (count == 0)
+                return -1;
+            int pawn = rollout.getPawn(team, rollout.random(count));
+            int stance = rollout.random(3);
+            int cell = rollout.getCell(pawn), move;
+            do {
+                move = rollout.random(5);
+            } while (!rollout.isTile(rollout.getNeighbor(cell, move)));
+            return pack(pawn, stance, move);
+        }
+
+    }
+
+    private static final int[] weak = {2, 0, 1};
+    private static final Move[] moves = Move.values();
+    private static final Stance[] stances = Stance.values();
+
+    private final Board board;
+    private final Rules rules;
+    private final int teams;
+
+    // Board, as a grid padded with one void cell on each side
+    private final int minx, miny, width;
+    private final boolean[] tiles;
+    private final int[] offsets;
+    private final int[] occupants;
+
+    // Pawns, indexed from 0 to size (dead pawns are kept with 0 health)
+    private int size;
+    private int[] pawnTeams, pawnIds, pawnCells, pawnStances, pawnHealths;
+    private final int[] counts, material;
+
+    // Turn status
+    private int team, points, turn, plies, alive;
+    private int healthSum, lastHealthSum, staleCount;
+    private boolean stalled;
+    private long seed;
+
+    /**
+     * Create a new rollout engine for given board, rules and number of teams.
+     */
+    public Rollout(Board board, Rules rules, int teams) {
+        if (board == null || rules == null)
+            throw new NullPointerException();
+        if (teams <= 0)
+            throw new IllegalArgumentException();
+        this.board = board;
+        this.rules = rules;
+        this.teams = teams;
+        minx = board.getMin().getX() - 1;
+        miny = board.getMin().getY() - 1;
+        width = board.getMax().getX() - minx + 2;
+        int height = board.getMax().getY() - miny + 2;
+        tiles = new boolean[width * height];
+        for (Vector v : board.getTiles())
+            tiles[getCell(v)] = true;
+        offsets = new int[] {0, -1, width, 1, -width};
+        occupants = new int[tiles.length];
+        Arrays.fill(occupants, -1);
+        counts = new int[teams];
+        material = new int[teams];
+        int capacity = rules.getPawns() * teams;
+        pawnTeams = new int[capacity];
+        pawnIds = new int[capacity];
+        pawnCells = new int[capacity];
+        pawnStances = new int[capacity];
+        pawnHealths = new int[capacity];
+        seed = System.nanoTime() | 1;
+    }
+
+    /**
+     * Load given game state, with specified team to play and remaining action points.
+     * Turn and action counters are reset.
+     */
+    public void load(Game game, int team, int points) {
+        if (!game.getBoard().equals(board))
+            throw new IllegalArgumentException("Game does not use the board of this rollout");
+        if (team < 0 || team >= teams)
+            throw new IllegalArgumentException("Invalid team " + team);
+        int count = game.getPawnCount();
+        if (count > pawnTeams.length) {
+            pawnTeams = new int[count];
+            pawnIds = new int[count];
+            pawnCells = new int[count];
+            pawnStances = new int[count];
+            pawnHealths = new int[count];
+        }
+        Arrays.fill(occupants, -1);
+        Arrays.fill(counts, 0);
+        size = 0;
+        healthSum = 0;
+        for (Pawn p : game.getPawnList()) {
+            if (p.getTeam() < 0 || p.getTeam() >= teams)
+                throw new IllegalArgumentException("Invalid team for " + p);
+            pawnTeams[size] = p.getTeam();
+            pawnIds[size] = p.getId();
+            pawnCells[size] = getCell(p.getLocation());
+            pawnStances[size] = p.getStance().ordinal();
+            pawnHealths[size] = p.getHealth();
+            occupants[pawnCells[size]] = size;
+            counts[p.getTeam()]++;
+            healthSum += p.getHealth();
+            ++size;
+        }
+        alive = 0;
+        for (int c : counts)
+            if (c > 0)
+                ++alive;
+        this.team = team;
+        this.points = points;
+        turn = plies = 0;
+        lastHealthSum = healthSum;
+        staleCount = 0;
+        stalled = false;
+    }
+
+    /**
+     * Copy the state of another rollout, which must use the same board and number of teams.
+     * This does not allocate if capacities match, and can be used to restart many rollouts from one position.
+     */
+    public void load(Rollout other) {
+        if (other.tiles.length != tiles.length || other.teams != teams)
+            throw new IllegalArgumentException();
+        if (other.size > pawnTeams.length) {
+            pawnTeams = new int[other.pawnTeams.length];
+            pawnIds = new int[other.pawnTeams.length];
+            pawnCells = new int[other.pawnTeams.length];
+            pawnStances = new int[other.pawnTeams.length];
+            pawnHealths = new int[other.pawnTeams.length];
+        }
+        size = other.size;
+        System.arraycopy(other.pawnTeams, 0, pawnTeams, 0, size);
+        System.arraycopy(other.pawnIds, 0, pawnIds, 0, size);
+        System.arraycopy(other.pawnCells, 0, pawnCells, 0, size);
+        System.arraycopy(other.pawnStances, 0, pawnStances, 0, size);
+        System.arraycopy(other.pawnHealths, 0, pawnHealths, 0, size);
+        System.arraycopy(other.occupants, 0, occupants, 0, occupants.length);
+        System.arraycopy(other.counts, 0, counts, 0, teams);
+        alive = other.alive;
+        team = other.team;
+        points = other.points;
+        turn = other.turn;
+        plies = other.plies;
+        healthSum = other.healthSum;
+        lastHealthSum = other.lastHealthSum;
+        staleCount = other.staleCount;
+        stalled = other.stalled;
+    }
+
+    // Primitive loading, used by Tablebase to decode positions without creating a Game
+
+    void clear(int team, int points) {
+        for (int p = 0; p < size; ++p)
+            if (pawnHealths[p] > 0)
+                occupants[pawnCells[p]] = -1;
+        Arrays.fill(counts, 0);
+        size = 0;
+        alive = 0;
+        healthSum = 0;
+        this.team = team;
+        this.points = points;
+        turn = plies = 0;
+        lastHealthSum = 0;
+        staleCount = 0;
+        stalled = false;
+    }
+
+    boolean place(int team, int id, int cell, int stance, int health) {
+        if (occupants[cell] >= 0 || !tiles[cell])
+            return false;
+        if (size == pawnTeams.length) {
+            pawnTeams = Arrays.copyOf(pawnTeams, size * 2);
+            pawnIds = Arrays.copyOf(pawnIds, size * 2);
+            pawnCells = Arrays.copyOf(pawnCells, size * 2);
+            pawnStances = Arrays.copyOf(pawnStances, size * 2);
+            pawnHealths = Arrays.copyOf(pawnHealths, size * 2);
+        }
+        pawnTeams[size] = team;
+        pawnIds[size] = id;
+        pawnCells[size] = cell;
+        pawnStances[size] = stance;
+        pawnHealths[size] = health;
+        occupants[cell] = size;
+        if (counts[team]++ == 0)
+            ++alive;
+        healthSum += health;
+        lastHealthSum = healthSum;
+        ++size;
+        return true;
+    }
+
+    // End the turn without checking for idle games (decoded positions have no history)
+    void pass() {
+        if (isFinished())
+            return;
+        points = rules.getActions();
+        do {
+            if (++team == teams) {
+                team = 0;
+                ++turn;
+            }
+        } while (counts[team] == 0);
+    }
+
+    /**
+     * Set the seed of the internal random generator (used by policies through <code>random</code>).
+     */
+    public void setSeed(long seed) {
+        this.seed = seed == 0 ? 1 : seed;
+    }
+
+    /**
+     * Get a pseudo-random number from <code>0</code> (inclusive) to <code>bound</code> (exclusive).
+     */
+    public int random(int bound) {
+        // Xorshift64*, good enough for playouts and much cheaper than java.util.Random
+        seed ^= seed >>> 12;
+        seed ^= seed << 25;
+        seed ^= seed >>> 27;
+        long r = (seed * 2685821657736338717L) >>> 33;
+        return (int)((r * bound) >>> 31);
+    }
+
+    /**
+     * Encode an action as an integer (pawn index, stance ordinal, move ordinal).
+     */
+    public static int pack(int pawn, int stance, int move) {
+        return (pawn << 8) | (stance << 4) | move;
+    }
+
+    /**
+     * Get associated board.
+     */
+    public Board getBoard() {
+        return board;
+    }
+
+    /**
+     * Get associated rules.
+     */
+    public Rules getRules() {
+        return rules;
+    }
+
+    /**
+     * Get number of teams.
+     */
+    public int getTeams() {
+        return teams;
+    }
+
+    /**
+     * Get cell index of given location (must be inside the bounding square of the board).
+     */
+    public int getCell(Vector location) {
+        return (location.getY() - miny) * width + location.getX() - minx;
+    }
+
+    /**
+     * Get how many cells are in the grid (cells indices range from <code>0</code> to this value, exclusive).
+     */
+    public int getCellCount() {
+        return tiles.length;
+    }
+
+    /**
+     * Get location of given cell.
+     */
+    public Vector getLocation(int cell) {
+        return new Vector(cell % width + minx, cell / width + miny);
+    }
+
+    /**
+     * Get cell next to given cell, in given direction (move ordinal).
+     */
+    public int getNeighbor(int cell, int move) {
+        return cell + offsets[move];
+    }
+
+    /**
+     * Get whether given cell is a tile.
+     */
+    public boolean isTile(int cell) {
+        return cell >= 0 && cell < tiles.length && tiles[cell];
+    }
+
+    /**
+     * Get pawn index at given cell (or <code>-1</code> if none).
+     */
+    public int getOccupant(int cell) {
+        return occupants[cell];
+    }
+
+    /**
+     * Get how many pawns (dead or alive) are stored.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get team of given pawn.
+     */
+    public int getTeam(int pawn) {
+        return pawnTeams[pawn];
+    }
+
+    /**
+     * Get identifier of given pawn.
+     */
+    public int getId(int pawn) {
+        return pawnIds[pawn];
+    }
+
+    /**
+     * Get cell of given pawn.
+     */
+    public int getCell(int pawn) {
+        return pawnCells[pawn];
+    }
+
+    /**
+     * Get stance ordinal of given pawn.
+     */
+    public int getStance(int pawn) {
+        return pawnStances[pawn];
+    }
+
+    /**
+     * Get health points of given pawn (0 if dead).
+     */
+    public int getHealth(int pawn) {
+        return pawnHealths[pawn];
+    }
+
+    /**
+     * Get whether given pawn is alive.
+     */
+    public boolean isAlive(int pawn) {
+        return pawnHealths[pawn] > 0;
+    }
+
+    /**
+     * Get how many living pawns are in given team.
+     */
+    public int getPawnCount(int team) {
+        return counts[team];
+    }
+
+    /**
+     * Get pawn index of the <code>index</code>-th living pawn of given team (sorted by id), or <code>-1</code>.
+     */
+    public int getPawn(int team, int index) {
+        for (int p = 0; p < size; ++p)
+            if (pawnTeams[p] == team && pawnHealths[p] > 0 && index-- == 0)
+                return p;
+        return -1;
+    }
+
+    /**
+     * Get sum of health points of all living pawns.
+     */
+    public int getHealthSum() {
+        return healthSum;
+    }
+
+    /**
+     * Get current team (the one that will play next).
+     */
+    public int getCurrentTeam() {
+        return team;
+    }
+
+    /**
+     * Get how many points current team has left for this turn.
+     */
+    public int getPoints() {
+        return points;
+    }
+
+    /**
+     * Get how many full rounds were played since last load.
+     */
+    public int getTurns() {
+        return turn;
+    }
+
+    /**
+     * Get how many actions were applied since last load.
+     */
+    public int getPlies() {
+        return plies;
+    }
+
+    /**
+     * Get whether game is finished (may not have a winner).
+     */
+    public boolean isFinished() {
+        return alive <= 1;
+    }
+
+    /**
+     * Get whether the game was stopped because nothing happened for too long (a draw, unless adjudicated).
+     */
+    public boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * If game has ended, get the winning team (-1 otherwise).
+     */
+    public int getWinner() {
+        if (alive != 1)
+            return -1;
+        for (int t = 0; t < teams; ++t)
+            if (counts[t] > 0)
+                return t;
+        return -1;
+    }
+
+    /**
+     * Get the cost of given action, for current team (or <code>-1</code> if this action is not allowed).
+     */
+    public int getCost(int pawn, int stance, int move) {
+        if (pawn < 0 || pawn >= size || pawnTeams[pawn] != team || pawnHealths[pawn] <= 0)
+            return -1;
+        int cost = 0;
+        if (move != 0)
+            cost += rules.getMoveCost();
+        if (stance != pawnStances[pawn])
+            cost += rules.getStanceCost();
+        if (cost == 0)
+            cost = 1;
+        return cost > points ? -1 : cost;
+    }
+
+    /**
+     * Apply given action for current team.
+     * Return <code>false</code> (and leave state unchanged) if action is not allowed.
+     * The turn does not change, even if all action points are used.
+     */
+    public boolean apply(int pawn, int stance, int move) {
+        int cost = getCost(pawn, stance, move);
+        if (cost < 0)
+            return false;
+        pawnStances[pawn] = stance;
+        if (move != 0)
+            push(pawn, move);
+        points -= cost;
+        ++plies;
+        return true;
+    }
+
+    private void damage(int pawn, int damage) {
+        int health = pawnHealths[pawn];
+        if (damage > health)
+            damage = health;
+        health -= damage;
+        healthSum -= damage;
+        pawnHealths[pawn] = health;
+        if (health == 0) {
+            occupants[pawnCells[pawn]] = -1;
+            if (--counts[pawnTeams[pawn]] == 0)
+                --alive;
+        }
+    }
+
+    private void push(int pawn, int move) {
+        // See Game.move, this is the same algorithm on primitive state
+        int dest = pawnCells[pawn] + offsets[move];
+        int damage = 0;
+        int target = -1;
+        if (!tiles[dest])
+            damage = pawnHealths[pawn];
+        else {
+            target = occupants[dest];
+            if (target >= 0) {
+                int ps = pawnStances[pawn], ts = pawnStances[target];
+                if (ps == ts)
+                    push(target, move);
+                else if (weak[ps] == ts)
+                    damage(target, 1);
+                else {
+                    push(target, move);
+                    if (pawnHealths[target] > 0)
+                        push(target, move);
+                    damage = 1;
+                }
+                target = occupants[dest];
+            }
+        }
+        if (target < 0) {
+            occupants[pawnCells[pawn]] = -1;
+            occupants[dest] = pawn;
+            pawnCells[pawn] = dest;
+        }
+        if (damage > 0)
+            damage(pawn, damage);
+    }
+
+    /**
+     * End the turn of current team, and give action points to next team.
+     */
+    public void end() {
+        if (isFinished())
+            return;
+        points = rules.getActions();
+        do {
+            if (++team == teams) {
+                team = 0;
+                ++turn;
+                // Check for idle game, as Simulator does
+                if (healthSum != lastHealthSum)
+                    staleCount = 0;
+                else if (++staleCount >= rules.getStaleLimit()) {
+                    stall();
+                    return;
+                }
+                lastHealthSum = healthSum;
+            }
+        } while (counts[team] == 0);
+    }
+
+    private void stall() {
+        Arrays.fill(material, 0);
+        for (int p = 0; p < size; ++p)
+            material[pawnTeams[p]] += pawnHealths[p];
+        int winner = rules.adjudicate(material);
+        for (int p = 0; p < size; ++p)
+            if (pawnHealths[p] > 0 && pawnTeams[p] != winner)
+                damage(p, pawnHealths[p]);
+        stalled = true;
+    }
+
+    /**
+     * Let given policy play until game is finished, or until <code>maxPlies</code> actions were applied.
+     * Return the winning team (-1 if draw or unfinished).
+     */
+    public int run(Policy policy, int maxPlies) {
+        while (!isFinished() && plies < maxPlies) {
+            int action = policy.play(this, team, points);
+            if (action < 0 || !apply(action >>> 8, (action >>> 4) & 15, action & 15))
+                end();
+            else if (points <= 0)
+                end();
+        }
+        return getWinner();
+    }
+
+    /**
+     * Let given policy play until game is finished.
+     */
+    public int run(Policy policy) {
+        return run(policy, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create an action object from an encoded action.
+     */
+    public Action toAction(int action) {
+        int pawn = action >>> 8;
+        return new Action(toPawn(pawn), stances[(action >>> 4) & 15], moves[action & 15]);
+    }
+
+    /**
+     * Create a pawn object for given pawn index.
+     */
+    public Pawn toPawn(int pawn) {
+        return new Pawn(pawnTeams[pawn], pawnIds[pawn], getLocation(pawnCells[pawn]), stances[pawnStances[pawn]], pawnHealths[pawn]);
+    }
+
+    /**
+     * Create a game object from current state.
+     */
+    public Game toGame() {
+        Set<Pawn> pawns = new HashSet<Pawn>();
+        for (int p = 0; p < size; ++p)
+            if (pawnHealths[p] > 0)
+                pawns.add(toPawn(p));
+        return new Game(board, pawns);
+    }
+
+}
@@ -6,15 +6,32 @@ package koth.game;
  */
 public final class Rules {
 
+    /**
+     * Default number of full rounds without any damage, before a game is stalled.
+     */
+    public static final int STALE_LIMIT = 100;
+
+    /**
+     * Default number of occurrences of a position (with the same team to play) before a game is stalled (repetitions
+     * are allowed).
+     */
+    public static final int REPETITIONS = 0;
+
     private final int pawns, actions, health, moveCost, stanceCost;
     private final Stance stance;
+    private final int staleLimit, repetitions, adjudication;
 
     /**
      * Create rules according to arguments.
+     * A stalled game (after <code>staleLimit</code> rounds without damage, or once a position occurred
+     * <code>repetitions</code> times, 0 to disable) is a draw, unless a team leads every other team by at least
+     * <code>adjudication</code> health points (0 to disable), in which case it wins.
      */
-    public Rules(int pawns, int actions, int health, int moveCost, int stanceCost, Stance stance) {
+    public Rules(int pawns, int actions, int health, int moveCost, int stanceCost, Stance stance, int staleLimit, int repetitions, int adjudication) {
         if (pawns <= 0 || actions <= 0 || health <= 0 || moveCost < 0 || stanceCost < 0)
             throw new IllegalArgumentException();
+        if (staleLimit <= 0 || repetitions < 0 || repetitions == 1 || adjudication < 0)
+            throw new IllegalArgumentException();
         if (stance == null)
             throw new NullPointerException();
         this.pawns = pawns;
@@ -23,6 +40,16 @@ public final class Rules {
         this.moveCost = moveCost;
         this.stanceCost = stanceCost;
         this.stance = stance;
+        this.staleLimit = staleLimit;
+        this.repetitions = repetitions;
+        this.adjudication = adjudication;
+    }
+
+    /**
+     * Create rules according to arguments, with default stall policy (draw after 100 rounds without damage).
+     */
+    public Rules(int pawns, int actions, int health, int moveCost, int stanceCost, Stance stance) {
+        this(pawns, actions, health, moveCost, stanceCost, stance, STALE_LIMIT, REPETITIONS, 0);
     }
 
     /**
@@ -89,6 +116,52 @@ public final class Rules {
         return stance;
     }
 
+    /**
+     * Get how many full rounds without damage stall a game.
+     */
+    public int getStaleLimit() {
+        return staleLimit;
+    }
+
+    /**
+     * Get how many occurrences of a position stall a game (0 if repetitions are allowed).
+     */
+    public int getRepetitions() {
+        return repetitions;
+    }
+
+    /**
+     * Get health lead required to win a stalled game (0 if stalled games are draws).
+     */
+    public int getAdjudication() {
+        return adjudication;
+    }
+
+    /**
+     * Get the team awarded a stalled game, given remaining health of each team, or -1 for a draw.
+     */
+    public int adjudicate(int[] material) {
+        if (adjudication == 0)
+            return -1;
+        int best = -1, second = 0;
+        for (int t = 0; t < material.length; ++t) {
+            if (best < 0 || material[t] > material[best]) {
+                if (best >= 0)
+                    second = Math.max(second, material[best]);
+                best = t;
+            } else
+                second = Math.max(second, material[t]);
+        }
+        return best >= 0 && material[best] - second >= adjudication ? best : -1;
+    }
+
+    /**
+     * Get rules with the same game settings, and given stall policy.
+     */
+    public Rules withStallPolicy(int staleLimit, int repetitions, int adjudication) {
+        return new Rules(pawns, actions, health, moveCost, stanceCost, stance, staleLimit, repetitions, adjudication);
+    }
+
     @Override
     public boolean equals(Object o) {
         return !(o == null || o.getClass() != Rules.class) && equals((Rules)o);
@@ -96,18 +169,22 @@ public final class Rules {
 
     public boolean equals(Rules o) {
         return o != null && pawns == o.pawns && actions == o.actions && health == o.health &&
-            moveCost == o.moveCost && stanceCost == o.stanceCost && stance == o.stance;
+            moveCost == o.moveCost && stanceCost == o.stanceCost && stance == o.stance &&
+            staleLimit == o.staleLimit && repetitions == o.repetitions && adjudication == o.adjudication;
     }
 
     @Override
     public int hashCode() {
-        return pawns ^ actions ^ health ^ moveCost ^ stanceCost ^ stance.hashCode();
+        return pawns ^ actions ^ health ^ moveCost ^ stanceCost ^ stance.hashCode() ^ staleLimit ^ repetitions ^ adjudication;
     }
 
     @Override
     public String toString() {
+        // The default stall policy is omitted, so that fingerprints of existing tournaments do not change
+        String policy = staleLimit == STALE_LIMIT && repetitions == REPETITIONS && adjudication == 0 ? "" :
+            ", staleLimit=" + staleLimit + ", repetitions=" + repetitions + ", adjudication=" + adjudication;
         return "Rules{" + "pawns=" + pawns + ", actions=" + actions + ", health=" + health +
-            ", moveCost=" + moveCost + ", stanceCost=" + stanceCost + ", stance=" + stance + "}";
+            ", moveCost=" + moveCost + ", stanceCost=" + stanceCost + ", stance=" + stance + policy + "}";
     }
 
 }
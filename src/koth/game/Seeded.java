@@ -0,0 +1,13 @@
+package koth.game;
+
+/**
+ * An AI which uses random numbers may implement this interface, so that its games can be reproduced.
+ */
+public interface Seeded {
+
+    /**
+     * Called before <code>initialize</code>, with a seed derived from the match seed (each team gets its own stream).
+     */
+    public void setSeed(long seed);
+
+}
@@ -0,0 +1,680 @@
+package koth.game;
+
+import koth.util.Vector;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Endgame tablebase for two teams, with a small number of pawns on a given board.
+ * Each position (pawns, team to play and remaining action points) is associated to a result for the team to play
+ * (win, loss or draw) and the number of decisions (actions or turn ends) before the game ends with perfect play.
+ * The stall policy of rules (stale limit, repetitions and adjudication) is not taken into account: a game only ends
+ * once a team is eliminated, and positions which never end are draws.
+ * Pawns of a team are interchangeable, hence each team is indexed by its set of tiles, and positions which only differ
+ * by a symmetry of the board (rotation or reflection) share the same entry. Tables are split in pages, so that their
+ * size is only limited by available memory.
+ */
+public final class Tablebase {
+
+    /**
+     * Returned by <code>probe</code> if position is not covered by this tablebase.
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final int MAGIC = 0x4b544232;
+    private static final char DRAW = 0, WIN = 0x4000, LOSS = 0x8000, INVALID = 0xffff;
+    private static final int DISTANCE = 0x3fff;
+    private static final int PAGE_BITS = 20, PAGE = 1 << PAGE_BITS;
+
+    /*
+        Index of a position with a pawns in team 0 and b pawns in team 1: the tiles of team 0 are mapped by a symmetry
+        of the board to the representative of their orbit, and then
+
+            ((((representative * states^a + states of team 0) * C(tiles, b) + rank of tiles of team 1) * states^b
+                + states of team 1) * actions + points - 1) * 2 + team
+
+        where sets of tiles are ranked with the combinatorial number system, and pawn states (stance and health) are
+        listed by increasing tile. Entries whose pawns overlap are invalid.
+     */
+
+    private final Board board;
+    private final Rules rules;
+    private final int pawns;
+    private final List<Vector> tiles;
+    private final Map<Vector, Integer> indices;
+    private final long fingerprint;
+    private final int states;
+    // Binomial coefficients, indexed by n (up to tile count) and k (up to pawn count)
+    private final long[][] binomials;
+    // Maps of tile indices, for each symmetry of the board (identity first)
+    private final int[][] symmetries;
+    // For each size of team 0, orbit of each set of tiles (representative << 3 | symmetry) and rank of representatives
+    private final int[][] orbits, representatives;
+    private final Table[][] tables;
+    // Last board of a probed game which matched tiles of this tablebase
+    private volatile Board checked;
+
+    // Entries of a table, in pages since there may be more than 2^31
+    private static final class Table {
+
+        private final long length;
+        private final char[][] pages;
+
+        public Table(long length) {
+            this.length = length;
+            pages = new char[(int)((length + PAGE - 1) >>> PAGE_BITS)][];
+            for (int i = 0; i < pages.length; ++i)
+                pages[i] = new char[(int)Math.min(PAGE, length - ((long)i << PAGE_BITS))];
+        }
+
+        public char get(long index) {
+            return pages[(int)(index >>> PAGE_BITS)][(int)index & (PAGE - 1)];
+        }
+
+        public void set(long index, char value) {
+            pages[(int)(index >>> PAGE_BITS)][(int)index & (PAGE - 1)] = value;
+        }
+
+    }
+
+    private Tablebase(List<Vector> tiles, Rules rules, int pawns) {
+        if (tiles == null || rules == null)
+            throw new NullPointerException();
+        if (pawns < 2)
+            throw new IllegalArgumentException("At least two pawns are required");
+        this.board = new Board(new HashSet<Vector>(tiles), null);
+        this.rules = rules.withStallPolicy(Rules.STALE_LIMIT, Rules.REPETITIONS, 0);
+        this.pawns = pawns;
+        this.tiles = Collections.unmodifiableList(new ArrayList<Vector>(tiles));
+        indices = new HashMap<Vector, Integer>();
+        for (int i = 0; i < tiles.size(); ++i)
+            indices.put(tiles.get(i), i);
+        fingerprint = getFingerprint(tiles);
+        states = 3 * rules.getHealth();
+        binomials = new long[tiles.size() + 1][pawns + 1];
+        for (int n = 0; n <= tiles.size(); ++n) {
+            binomials[n][0] = 1;
+            for (int k = 1; k <= pawns && n > 0; ++k)
+                binomials[n][k] = binomials[n - 1][k - 1] + binomials[n - 1][k];
+        }
+        symmetries = createSymmetries();
+        int sizes = Math.min(pawns - 1, rules.getPawns());
+        orbits = new int[sizes + 1][];
+        representatives = new int[sizes + 1][];
+        for (int k = 1; k <= sizes; ++k)
+            createOrbits(k);
+        tables = new Table[pawns][pawns];
+    }
+
+    private int[][] createSymmetries() {
+        int minx = Integer.MAX_VALUE, miny = Integer.MAX_VALUE;
+        for (Vector v : tiles) {
+            minx = Math.min(minx, v.getX());
+            miny = Math.min(miny, v.getY());
+        }
+        List<int[]> maps = new ArrayList<int[]>();
+        int[] xs = new int[tiles.size()], ys = new int[tiles.size()];
+        for (int s = 0; s < 8; ++s) {
+            // Reflect each axis, then swap them (8 isometries of the grid), and align minimal coordinates
+            int mx = Integer.MAX_VALUE, my = Integer.MAX_VALUE;
+            for (int i = 0; i < tiles.size(); ++i) {
+                int x = (s & 1) != 0 ? -tiles.get(i).getX() : tiles.get(i).getX();
+                int y = (s & 2) != 0 ? -tiles.get(i).getY() : tiles.get(i).getY();
+                xs[i] = (s & 4) != 0 ? y : x;
+                ys[i] = (s & 4) != 0 ? x : y;
+                mx = Math.min(mx, xs[i]);
+                my = Math.min(my, ys[i]);
+            }
+            int[] map = new int[tiles.size()];
+            for (int i = 0; i < tiles.size() && map != null; ++i) {
+                Integer tile = indices.get(new Vector(xs[i] - mx + minx, ys[i] - my + miny));
+                if (tile == null)
+                    map = null;
+                else
+                    map[i] = tile;
+            }
+            if (map != null)
+                maps.add(map);
+        }
+        return maps.toArray(new int[maps.size()][]);
+    }
+
+    private void createOrbits(int k) {
+        long count = binomials[tiles.size()][k];
+        if (count > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many sets of " + k + " tiles (" + count + ")");
+        int[] orbit = new int[(int)count], reps = new int[(int)count];
+        int size = 0;
+        int[] set = new int[k], mapped = new int[k];
+        for (int rank = 0; rank < count; ++rank) {
+            // The representative is the set of minimal rank, hence it was met before
+            unrank(rank, k, set, 0);
+            long best = rank;
+            int symmetry = 0;
+            for (int g = 1; g < symmetries.length; ++g) {
+                for (int i = 0; i < k; ++i)
+                    mapped[i] = symmetries[g][set[i]];
+                sort(mapped, 0, k);
+                long r = rank(mapped, 0, k);
+                if (r < best) {
+                    best = r;
+                    symmetry = g;
+                }
+            }
+            if (best == rank) {
+                orbit[rank] = size << 3;
+                reps[size++] = rank;
+            } else
+                orbit[rank] = (orbit[(int)best] & ~7) | symmetry;
+        }
+        orbits[k] = orbit;
+        representatives[k] = Arrays.copyOf(reps, size);
+    }
+
+    private static void sort(int[] values, int offset, int count) {
+        for (int i = offset + 1; i < offset + count; ++i) {
+            int value = values[i], j = i;
+            for (; j > offset && values[j - 1] > value; --j)
+                values[j] = values[j - 1];
+            values[j] = value;
+        }
+    }
+
+    // Rank of a sorted set of tiles, among sets of the same size
+    private long rank(int[] set, int offset, int count) {
+        long rank = 0;
+        for (int i = 0; i < count; ++i)
+            rank += binomials[set[offset + i]][i + 1];
+        return rank;
+    }
+
+    // Sorted set of tiles of given rank
+    private void unrank(long rank, int count, int[] set, int offset) {
+        int high = tiles.size() - 1;
+        for (int i = count - 1; i >= 0; --i) {
+            int low = i;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (binomials[middle][i + 1] <= rank)
+                    low = middle;
+                else
+                    high = middle - 1;
+            }
+            set[offset + i] = low;
+            rank -= binomials[low][i + 1];
+            high = low - 1;
+        }
+    }
+
+    // Index of a position, given slots (tile * states + state) of team 0 then team 1, which are reordered
+    private long getIndex(int a, int b, int[] slots, int points, int team) {
+        sort(slots, 0, a);
+        long rank = 0;
+        for (int i = 0; i < a; ++i)
+            rank += binomials[slots[i] / states][i + 1];
+        int orbit = orbits[a][(int)rank];
+        if ((orbit & 7) != 0) {
+            int[] map = symmetries[orbit & 7];
+            for (int i = 0; i < a + b; ++i)
+                slots[i] = map[slots[i] / states] * states + slots[i] % states;
+            sort(slots, 0, a);
+        }
+        long index = orbit >>> 3;
+        for (int i = 0; i < a; ++i)
+            index = index * states + slots[i] % states;
+        sort(slots, a, b);
+        rank = 0;
+        for (int i = 0; i < b; ++i)
+            rank += binomials[slots[a + i] / states][i + 1];
+        index = index * binomials[tiles.size()][b] + rank;
+        for (int i = 0; i < b; ++i)
+            index = index * states + slots[a + i] % states;
+        return (index * rules.getActions() + points - 1) * 2 + team;
+    }
+
+    /**
+     * Get tiles, in the order used to index positions.
+     */
+    public List<Vector> getTiles() {
+        return tiles;
+    }
+
+    /**
+     * Get associated rules (with the default stall policy, which is ignored).
+     */
+    public Rules getRules() {
+        return rules;
+    }
+
+    /**
+     * Get maximum number of pawns (both teams included).
+     */
+    public int getPawns() {
+        return pawns;
+    }
+
+    /**
+     * Get how many symmetries of the board are used to reduce tables (including identity).
+     */
+    public int getSymmetries() {
+        return symmetries.length;
+    }
+
+    /**
+     * Get whether given probe result is a win for the team to play.
+     */
+    public static boolean isWin(int result) {
+        return result >= 0 && result != INVALID && (result & WIN) != 0 && (result & LOSS) == 0;
+    }
+
+    /**
+     * Get whether given probe result is a loss for the team to play.
+     */
+    public static boolean isLoss(int result) {
+        return result >= 0 && result != INVALID && (result & LOSS) != 0;
+    }
+
+    /**
+     * Get whether given probe result is a draw (including positions that cycle forever).
+     */
+    public static boolean isDraw(int result) {
+        return result == DRAW;
+    }
+
+    /**
+     * Get how many decisions are required to end the game, for given probe result (0 if draw or unknown).
+     */
+    public static int getDistance(int result) {
+        return result < 0 || result == INVALID ? 0 : result & DISTANCE;
+    }
+
+    private static long getFingerprint(Collection<Vector> tiles) {
+        // Order-independent, hence tiles need not be sorted
+        long h = tiles.size();
+        for (Vector v : tiles)
+            h += Game.mix(((long)v.getX() << 32) ^ (v.getY() & 0xffffffffL));
+        return h;
+    }
+
+    /**
+     * Get whether this tablebase was generated for the tiles of given board (spawns are ignored).
+     */
+    public boolean covers(Board board) {
+        if (board == checked)
+            return true;
+        if (board.getTiles().size() != tiles.size() || getFingerprint(board.getTiles()) != fingerprint)
+            return false;
+        checked = board;
+        return true;
+    }
+
+    /**
+     * Get how many entries are required for positions with <code>a</code> pawns in team 0 and <code>b</code> pawns in
+     * team 1 (<code>Long.MAX_VALUE</code> if this does not fit).
+     */
+    private long getSize(int a, int b) {
+        double estimate = (double)representatives[a].length * binomials[tiles.size()][b] * Math.pow(states, a + b) * rules.getActions() * 2;
+        if (estimate >= Long.MAX_VALUE / 2)
+            return Long.MAX_VALUE;
+        long size = representatives[a].length * binomials[tiles.size()][b];
+        for (int i = 0; i < a + b; ++i)
+            size *= states;
+        return size * rules.getActions() * 2;
+    }
+
+    private Table getTable(int a, int b) {
+        return a < 1 || b < 1 || a >= pawns || b >= pawns ? null : tables[a][b];
+    }
+
+    /**
+     * Get result for given position, with given team to play and remaining action points.
+     * This is a constant time operation; <code>UNKNOWN</code> is returned if position is not covered (including games
+     * played on another board).
+     */
+    public int probe(Game game, int team, int points) {
+        if (points < 1 || points > rules.getActions() || (team != 0 && team != 1) || !covers(game.getBoard()))
+            return UNKNOWN;
+        int a = game.getPawnCount(0), b = game.getPawnCount(1);
+        if (a + b != game.getPawnCount())
+            return UNKNOWN;
+        Table table = getTable(a, b);
+        if (table == null)
+            return UNKNOWN;
+        int[] slots = new int[a + b];
+        int i0 = 0, i1 = a;
+        for (Pawn p : game.getPawnList()) {
+            Integer tile = indices.get(p.getLocation());
+            if (tile == null || p.getHealth() > rules.getHealth())
+                return UNKNOWN;
+            int slot = tile * states + p.getStance().ordinal() * rules.getHealth() + p.getHealth() - 1;
+            if (p.getTeam() == 0)
+                slots[i0++] = slot;
+            else
+                slots[i1++] = slot;
+        }
+        char result = table.get(getIndex(a, b, slots, points, team));
+        return result == INVALID ? UNKNOWN : result;
+    }
+
+    /**
+     * Get result for given position, at the beginning of the turn of given team.
+     */
+    public int probe(Game game, int team) {
+        return probe(game, team, rules.getActions());
+    }
+
+    /*
+        Generation by layers: at layer k, a position is solved as a win in k decisions if a successor is a known win
+        (from the point of view of the team to play) in k-1 decisions, and as a loss in k decisions if all successors
+        are known losses, the longest being in k-1 decisions. Only entries solved in previous layers are read, hence
+        threads can sweep disjoint blocks of the same table without synchronization. Unsolved positions are draws.
+     */
+
+    private final class Solver implements Runnable {
+
+        private final int a, b;
+        private final Table table;
+        private final AtomicLong cursor;
+        private final AtomicInteger changes;
+        private int layer;
+        private final Rollout base, work;
+        private final int[] tileOfCell, cellOfTile;
+        private final int[] locations, buffer, slots;
+
+        public Solver(int a, int b, AtomicLong cursor, AtomicInteger changes) {
+            this.a = a;
+            this.b = b;
+            this.table = tables[a][b];
+            this.cursor = cursor;
+            this.changes = changes;
+            base = new Rollout(board, rules, 2);
+            work = new Rollout(board, rules, 2);
+            tileOfCell = new int[base.getCellCount()];
+            Arrays.fill(tileOfCell, -1);
+            cellOfTile = new int[tiles.size()];
+            for (int i = 0; i < tiles.size(); ++i) {
+                cellOfTile[i] = base.getCell(tiles.get(i));
+                tileOfCell[cellOfTile[i]] = i;
+            }
+            locations = new int[a + b];
+            buffer = new int[a + b];
+            slots = new int[a + b];
+        }
+
+        private boolean decode(long index) {
+            int team = (int)index & 1;
+            index >>>= 1;
+            int points = (int)(index % rules.getActions()) + 1;
+            index /= rules.getActions();
+            for (int i = a + b - 1; i >= a; --i) {
+                buffer[i] = (int)(index % states);
+                index /= states;
+            }
+            long sets = binomials[tiles.size()][b];
+            unrank(index % sets, b, locations, a);
+            index /= sets;
+            for (int i = a - 1; i >= 0; --i) {
+                buffer[i] = (int)(index % states);
+                index /= states;
+            }
+            unrank(representatives[a][(int)index], a, locations, 0);
+            base.clear(team, points);
+            for (int i = 0; i < a + b; ++i) {
+                int s = buffer[i];
+                int health = s % rules.getHealth() + 1;
+                if (!base.place(i < a ? 0 : 1, i < a ? i : i - a, cellOfTile[locations[i]], s / rules.getHealth(), health))
+                    return false;
+            }
+            return true;
+        }
+
+        // Get value of work rollout, from the point of view of given team (returns INVALID if not solved yet)
+        private char evaluate(int team) {
+            if (work.isFinished()) {
+                int winner = work.getWinner();
+                return winner < 0 ? DRAW : winner == team ? WIN : LOSS;
+            }
+            int pa = work.getPawnCount(0), pb = work.getPawnCount(1);
+            Table t = tables[pa][pb];
+            int i0 = 0, i1 = pa;
+            for (int p = 0; p < work.getSize(); ++p)
+                if (work.isAlive(p)) {
+                    int slot = tileOfCell[work.getCell(p)] * states + work.getStance(p) * rules.getHealth() + work.getHealth(p) - 1;
+                    if (work.getTeam(p) == 0)
+                        slots[i0++] = slot;
+                    else
+                        slots[i1++] = slot;
+                }
+            char value = t.get(getIndex(pa, pb, slots, work.getPoints(), work.getCurrentTeam()));
+            if (t == table && value != DRAW && (value & DISTANCE) >= layer)
+                return INVALID;
+            if (t == table && value == DRAW)
+                return INVALID;
+            if (value == DRAW || work.getCurrentTeam() == team)
+                return value;
+            return (char)((value & WIN) != 0 ? (value ^ WIN) | LOSS : (value ^ LOSS) | WIN);
+        }
+
+        // Solve current base position, return new value (or DRAW if still unknown)
+        private char solve() {
+            int team = base.getCurrentTeam();
+            int win = Integer.MAX_VALUE, loss = -1;
+            boolean unknown = false;
+            for (int p = 0; p < base.getSize(); ++p) {
+                if (base.getTeam(p) != team)
+                    continue;
+                for (int stance = 0; stance < 3; ++stance)
+                    for (int move = 0; move < 5; ++move) {
+                        if (base.getCost(p, stance, move) < 0)
+                            continue;
+                        work.load(base);
+                        work.apply(p, stance, move);
+                        if (work.getPoints() <= 0)
+                            work.pass();
+                        char value = evaluate(team);
+                        if (value == INVALID || value == DRAW)
+                            unknown = true;
+                        else if ((value & WIN) != 0)
+                            win = Math.min(win, value & DISTANCE);
+                        else
+                            loss = Math.max(loss, value & DISTANCE);
+                    }
+            }
+            // Ending the turn is always allowed
+            work.load(base);
+            work.pass();
+            char value = evaluate(team);
+            if (value == INVALID || value == DRAW)
+                unknown = true;
+            else if ((value & WIN) != 0)
+                win = Math.min(win, value & DISTANCE);
+            else
+                loss = Math.max(loss, value & DISTANCE);
+            if (win < DISTANCE)
+                return (char)(WIN | (win + 1));
+            if (!unknown && loss < DISTANCE)
+                return (char)(LOSS | (loss + 1));
+            return DRAW;
+        }
+
+        @Override
+        public void run() {
+            int block = 4096;
+            for (long begin; (begin = cursor.getAndAdd(block)) < table.length;) {
+                long end = Math.min(begin + block, table.length);
+                int count = 0;
+                for (long i = begin; i < end; ++i) {
+                    if (table.get(i) != DRAW)
+                        continue;
+                    if (layer == 0) {
+                        if (!decode(i))
+                            table.set(i, INVALID);
+                        continue;
+                    }
+                    if (!decode(i))
+                        continue;
+                    char value = solve();
+                    if (value != DRAW && (value & DISTANCE) == layer) {
+                        table.set(i, value);
+                        ++count;
+                    }
+                }
+                changes.addAndGet(count);
+            }
+        }
+
+    }
+
+    private void solve(int a, int b, ExecutorService service, int threads) {
+        long size = getSize(a, b);
+        if (size > Runtime.getRuntime().maxMemory() / 2)
+            throw new IllegalArgumentException("Too many positions for " + a + " versus " + b + " pawns (" + size + ")");
+        tables[a][b] = new Table(size);
+        // Solvers (and their rollouts) are reused by all layers
+        AtomicLong cursor = new AtomicLong();
+        AtomicInteger changes = new AtomicInteger();
+        Solver[] solvers = new Solver[threads];
+        for (int i = 0; i < threads; ++i)
+            solvers[i] = new Solver(a, b, cursor, changes);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int layer = 0; layer <= DISTANCE; ++layer) {
+            cursor.set(0);
+            changes.set(0);
+            futures.clear();
+            for (Solver solver : solvers) {
+                solver.layer = layer;
+                futures.add(service.submit(solver));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException("Interrupted during tablebase generation", e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Tablebase generation failed", e.getCause());
+                }
+            }
+            if (layer > 0 && changes.get() == 0)
+                break;
+        }
+    }
+
+    /**
+     * Solve all positions with at most <code>pawns</code> pawns (at least one for each team) using given number of threads.
+     * @throws java.lang.IllegalArgumentException if there are too many positions to fit in memory
+     */
+    public static Tablebase generate(Board board, Rules rules, int pawns, int threads) {
+        if (board == null || rules == null)
+            throw new NullPointerException();
+        if (threads <= 0)
+            throw new IllegalArgumentException();
+        List<Vector> tiles = new ArrayList<Vector>(board.getTiles());
+        Collections.sort(tiles, new Comparator<Vector>() {
+            @Override
+            public int compare(Vector a, Vector b) {
+                int r = Integer.compare(a.getY(), b.getY());
+                return r == 0 ? Integer.compare(a.getX(), b.getX()) : r;
+            }
+        });
+        Tablebase tablebase = new Tablebase(tiles, rules, pawns);
+        // Workers are shared by all layers of all tables
+        final AtomicInteger ids = new AtomicInteger();
+        ExecutorService service = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Tablebase-" + ids.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (int count = 2; count <= pawns; ++count)
+                for (int a = Math.max(1, count - rules.getPawns()); a <= Math.min(count - 1, rules.getPawns()); ++a)
+                    tablebase.solve(a, count - a, service, threads);
+        } finally {
+            service.shutdownNow();
+        }
+        return tablebase;
+    }
+
+    /**
+     * Solve all positions with at most <code>pawns</code> pawns, using all available processors.
+     */
+    public static Tablebase generate(Board board, Rules rules, int pawns) {
+        return generate(board, rules, pawns, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Write this tablebase to given file (compressed).
+     */
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(rules.getPawns());
+            out.writeInt(rules.getActions());
+            out.writeInt(rules.getHealth());
+            out.writeInt(rules.getMoveCost());
+            out.writeInt(rules.getStanceCost());
+            out.writeInt(rules.getStance().ordinal());
+            out.writeInt(pawns);
+            out.writeInt(tiles.size());
+            for (Vector v : tiles) {
+                out.writeInt(v.getX());
+                out.writeInt(v.getY());
+            }
+            for (int a = 1; a < pawns; ++a)
+                for (int b = 1; b < pawns; ++b) {
+                    Table table = tables[a][b];
+                    out.writeLong(table == null ? 0 : table.length);
+                    if (table != null)
+                        for (char[] page : table.pages)
+                            for (char c : page)
+                                out.writeChar(c);
+                }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a tablebase from given file.
+     */
+    public static Tablebase load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a tablebase");
+            Rules rules = new Rules(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), Stance.fromInt(in.readInt()));
+            int pawns = in.readInt();
+            int count = in.readInt();
+            List<Vector> tiles = new ArrayList<Vector>(count);
+            for (int i = 0; i < count; ++i)
+                tiles.add(new Vector(in.readInt(), in.readInt()));
+            Tablebase tablebase = new Tablebase(tiles, rules, pawns);
+            for (int a = 1; a < pawns; ++a)
+                for (int b = 1; b < pawns; ++b) {
+                    long length = in.readLong();
+                    if (length == 0)
+                        continue;
+                    if (a >= tablebase.orbits.length || b >= tablebase.orbits.length || length != tablebase.getSize(a, b))
+                        throw new IOException("Corrupted table for " + a + " versus " + b + " pawns");
+                    Table table = new Table(length);
+                    for (char[] page : table.pages)
+                        for (int i = 0; i < page.length; ++i)
+                            page[i] = in.readChar();
+                    tablebase.tables[a][b] = table;
+                }
+            return tablebase;
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package koth.game;
+
+import java.util.List;
+
+/**
+ * An AI implementing this interface exposes named numeric parameters, which can be optimized by a tuner.
+ */
+public interface Tunable {
+
+    /**
+     * A bounded numeric parameter, with its current value.
+     */
+    public static final class Parameter {
+
+        private final String name;
+        private final double min, max, value;
+
+        public Parameter(String name, double min, double max, double value) {
+            if (name == null)
+                throw new NullPointerException();
+            if (!(min < max) || value < min || value > max)
+                throw new IllegalArgumentException();
+            this.name = name;
+            this.min = min;
+            this.max = max;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + value + " [" + min + ", " + max + "]";
+        }
+
+    }
+
+    /**
+     * Get parameters, in a stable order.
+     */
+    public List<Parameter> getParameters();
+
+    /**
+     * Set value of specified parameter (called before the game starts, with a value within its bounds).
+     */
+    public void setParameter(String name, double value);
+
+}
@@ -0,0 +1,185 @@
+package koth.system;
+
+import koth.game.*;
+
+import java.util.Arrays;
+
+/**
+ * Declare the winner of a game before it is finished, once it is clearly decided (e.g. 5 pawns against 1).
+ * After each round, an estimator gives the win probability of each team, and a team wins as soon as its probability
+ * stayed at or above the threshold for a number of consecutive rounds. Its pawns are kept, other pawns are removed (see
+ * <code>Simulator.isAdjudicated</code>).
+ * An adjudicator is immutable and can be shared by simulators; estimators must be thread-safe.
+ */
+public final class Adjudicator {
+
+    /**
+     * Estimate win probabilities of a game.
+     */
+    public static interface Estimator {
+
+        /**
+         * Get the probability that each team wins given game (indexed by team), at the beginning of the turn of given
+         * team. Probabilities may sum to less than one (draws, or unknown outcome).
+         */
+        public double[] estimate(Game game, int teams, int team, Rules rules);
+
+    }
+
+    /**
+     * Get an estimator based on remaining health: the probability of a team is a logistic function of its lead over
+     * the strongest other team, measured in full pawns (<code>scale</code> is the slope of the logistic function).
+     */
+    public static Estimator material(final double scale) {
+        if (!(scale > 0))
+            throw new IllegalArgumentException();
+        return new Estimator() {
+            @Override
+            public double[] estimate(Game game, int teams, int team, Rules rules) {
+                int[] material = new int[teams];
+                for (Pawn p : game.getPawns())
+                    material[p.getTeam()] += p.getHealth();
+                double[] probabilities = new double[teams];
+                for (int t = 0; t < teams; ++t)
+                    probabilities[t] = getProbability(material, t, scale, rules);
+                return probabilities;
+            }
+
+            @Override
+            public String toString() {
+                return "material(" + scale + ")";
+            }
+        };
+    }
+
+    /**
+     * Get an estimator based on an endgame tablebase: the winner with perfect play has probability 1. Positions which
+     * are not covered (or drawn) have no winner.
+     */
+    public static Estimator tablebase(final Tablebase tablebase) {
+        if (tablebase == null)
+            throw new NullPointerException();
+        return new Estimator() {
+            @Override
+            public double[] estimate(Game game, int teams, int team, Rules rules) {
+                double[] probabilities = new double[teams];
+                if (teams != 2 || !rules.equals(tablebase.getRules().withStallPolicy(rules.getStaleLimit(), rules.getRepetitions(), rules.getAdjudication())))
+                    return probabilities;
+                int result = tablebase.probe(game, team);
+                if (Tablebase.isWin(result))
+                    probabilities[team] = 1;
+                else if (Tablebase.isLoss(result))
+                    probabilities[1 - team] = 1;
+                return probabilities;
+            }
+
+            @Override
+            public String toString() {
+                return "tablebase";
+            }
+        };
+    }
+
+    /**
+     * Get an estimator based on random playouts (see <code>Rollout.RandomPolicy</code>): the probability of a team is
+     * the fraction of <code>playouts</code> it won. Playouts are cut after <code>maxPlies</code> actions (random play
+     * rarely ends a game quickly), and cut playouts are scored by the material estimator, with a slope of 1.
+     * Playouts are seeded by the position, hence estimates are reproducible.
+     */
+    public static Estimator rollout(final int playouts, final int maxPlies) {
+        if (playouts <= 0 || maxPlies <= 0)
+            throw new IllegalArgumentException();
+        // Rollouts are reused by each thread, as long as their board and rules do not change
+        final ThreadLocal<Rollout> rollouts = new ThreadLocal<Rollout>();
+        return new Estimator() {
+            @Override
+            public double[] estimate(Game game, int teams, int team, Rules rules) {
+                Rollout rollout = rollouts.get();
+                if (rollout == null || rollout.getBoard() != game.getBoard() || rollout.getTeams() != teams || !rollout.getRules().equals(rules)) {
+                    rollout = new Rollout(game.getBoard(), rules, teams);
+                    rollouts.set(rollout);
+                }
+                rollout.setSeed(game.getHash() ^ Game.mix(team + 1));
+                double[] probabilities = new double[teams];
+                int[] material = new int[teams];
+                for (int i = 0; i < playouts; ++i) {
+                    rollout.load(game, team, rules.getActions());
+                    int winner = rollout.run(Rollout.RandomPolicy.getInstance(), maxPlies);
+                    if (winner >= 0)
+                        probabilities[winner] += 1.0 / playouts;
+                    else if (!rollout.isFinished()) {
+                        Arrays.fill(material, 0);
+                        for (int p = 0; p < rollout.getSize(); ++p)
+                            material[rollout.getTeam(p)] += rollout.getHealth(p);
+                        for (int t = 0; t < teams; ++t)
+                            probabilities[t] += getProbability(material, t, 1, rules) / playouts;
+                    }
+                }
+                return probabilities;
+            }
+
+            @Override
+            public String toString() {
+                return "rollout(" + playouts + ", " + maxPlies + ")";
+            }
+        };
+    }
+
+    private static double getProbability(int[] material, int team, double scale, Rules rules) {
+        if (material[team] == 0)
+            return 0;
+        int other = 0;
+        for (int t = 0; t < material.length; ++t)
+            if (t != team)
+                other = Math.max(other, material[t]);
+        double lead = (double)(material[team] - other) / rules.getHealth();
+        return 1 / (1 + Math.exp(-scale * lead));
+    }
+
+    private final Estimator estimator;
+    private final double threshold;
+    private final int rounds;
+
+    /**
+     * Create an adjudicator, which declares a team winner once its probability (according to given estimator) is at
+     * least <code>threshold</code> for <code>rounds</code> consecutive rounds.
+     */
+    public Adjudicator(Estimator estimator, double threshold, int rounds) {
+        if (estimator == null)
+            throw new NullPointerException();
+        if (!(threshold > 0.5 && threshold <= 1) || rounds <= 0)
+            throw new IllegalArgumentException();
+        this.estimator = estimator;
+        this.threshold = threshold;
+        this.rounds = rounds;
+    }
+
+    public Estimator getEstimator() {
+        return estimator;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * Get the team whose probability reaches the threshold at the beginning of the turn of given team, or -1.
+     */
+    public int getLeader(Game game, int teams, int team, Rules rules) {
+        double[] probabilities = estimator.estimate(game, teams, team, rules);
+        for (int t = 0; t < probabilities.length; ++t)
+            if (probabilities[t] >= threshold)
+                return t;
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "Adjudicator{estimator=" + estimator + ", threshold=" + threshold + ", rounds=" + rounds + "}";
+    }
+
+}
@@ -0,0 +1,406 @@
+package koth.system;
+
+import koth.game.*;
+import koth.util.ClassManager;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Headless tournament runner, driven by command-line arguments.
+ * Results are streamed as tab-separated lines (sequence, generator, AIs, winner, turns and seed), followed by a summary.
+ * Matches are seeded from <code>--seed</code>, hence a run (or any of its games, given its seed) can be reproduced.
+ * No AWT class is used, hence it runs on servers without display.
+ */
+public final class Batch implements Tournament.Executor.Listener, Cluster.Listener {
+
+    private static final String USAGE =
+        "Usage: koth [options]\n" +
+        "  --ai NAME            AI to include (repeatable, default: all)\n" +
+        "  --jar PATH           JAR to load before looking for classes (repeatable)\n" +
+        "  --generator NAME     generator to use (repeatable, default: jlb.Cross)\n" +
+        "  --pawns N            pawns per team (default: 4)\n" +
+        "  --actions N          action points per turn\n" +
+        "  --health N           initial health\n" +
+        "  --move-cost N        cost of a move (default: 1)\n" +
+        "  --stance-cost N      cost of a stance change (default: 2)\n" +
+        "  --stance NAME        initial stance (default: Rock)\n" +
+        "  --stale-limit N      rounds without damage before a game is stalled (default: 100)\n" +
+        "  --repetitions N      occurrences of a position before a game is stalled, 0 for none (default: 0)\n" +
+        "  --adjudication N     health lead which wins a stalled game, 0 for a draw (default: 0)\n" +
+        "  --adjudicate NAME    end decided games early, using material, rollout or a tablebase file (default: none)\n" +
+        "  --adjudicate-threshold P\n" +
+        "                       win probability at which a game is decided (default: 0.95)\n" +
+        "  --adjudicate-rounds N\n" +
+        "                       consecutive rounds above the threshold before a game is decided (default: 3)\n" +
+        "  --teams N            teams per match (default: 2)\n" +
+        "  --matches N          matches to play (default: one of each lineup)\n" +
+        "  --threads N          worker threads, or matches in flight in virtual mode (default: available processors)\n" +
+        "  --mode NAME          platform (one thread per worker) or virtual (one virtual thread per match, for AIs\n" +
+        "                       that mostly wait) (default: platform)\n" +
+        "  --timeout MS         deadline of AI moves, 0 for none (default: 2000)\n" +
+        "  --output PATH        result file (default: standard output)\n" +
+        "  --seed N             tournament seed, from which match seeds are derived (default: 0)\n" +
+        "  --pairing NAME       none, mirrored (same spawns with teams swapped) or common (same spawns for all\n" +
+        "                       matchups of a round and generator) (default: none)\n" +
+        "  --schedule NAME      cartesian, round-robin, swiss or sampled (default: cartesian)\n" +
+        "  --rounds N           rounds of round-robin and swiss schedules (default: 1, 0 for no limit)\n" +
+        "  --sprt ELO           retire pairs once a SPRT decides between 0 and ELO (alpha = beta = 0.05)\n" +
+        "  --confidence Z       retire pairs once a Z-sigma interval of their score excludes 1/2\n" +
+        "  --margin M           with --confidence, also retire pairs once the interval is narrower than M (default: 0.1)\n" +
+        "  --processes N        worker JVMs to fork (default: 0, run in this JVM)\n" +
+        "  --chunk N            matches sent to a worker JVM at once (default: 16)\n" +
+        "  --tune NAME          tune parameters of given AI against the other AIs, instead of running a tournament\n" +
+        "  --iterations N       tuning iterations, 0 for no limit (default: 0)\n" +
+        "  --checkpoint PATH    file where tuned parameters are saved, and resumed from (default: NAME.tune)\n";
+
+    private final PrintStream out;
+    private final Map<String, int[]> totals;
+    private Stopping stopping;
+    private Ratings ratings;
+    private int games, adjudicated;
+
+    private Batch(PrintStream out) {
+        this.out = out;
+        totals = new TreeMap<String, int[]>();
+    }
+
+    @Override
+    public void finished(Tournament.Match match, Simulator simulator) {
+        finished(match, simulator.getGame().getWinner(), simulator.getTurn(), simulator.isAdjudicated());
+    }
+
+    @Override
+    public synchronized void finished(Tournament.Match match, int winner, int turns, boolean adjudicated) {
+        ratings.add(match, winner);
+        ++games;
+        if (adjudicated)
+            ++this.adjudicated;
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < match.getAis().size(); ++i) {
+            String name = match.getAis().get(i).getName();
+            if (i > 0)
+                names.append(',');
+            names.append(name);
+            int[] t = totals.get(name);
+            if (t == null)
+                totals.put(name, t = new int[3]);
+            t[winner == i ? 0 : winner < 0 ? 2 : 1]++;
+        }
+        out.println(match.getSequence() + "\t" + match.getGenerator().getName() + "\t" + names + "\t" + winner + "\t" + turns + "\t" + match.getSeed() + "\t" + adjudicated);
+    }
+
+    private synchronized void summarize() {
+        out.println("# adjudicated\t" + adjudicated + "\tof\t" + games);
+        out.println("# AI\twins\tlosses\tdraws");
+        for (Map.Entry<String, int[]> e : totals.entrySet())
+            out.println("# " + e.getKey() + "\t" + e.getValue()[0] + "\t" + e.getValue()[1] + "\t" + e.getValue()[2]);
+        ratings.flush();
+        List<ClassManager.Factory<AI>> all = ratings.getDescriptor().getAis();
+        List<Integer> ranking = ratings.getRanking();
+        out.println("# rank\tAI\trating\tdeviation");
+        for (int r = 0; r < ranking.size(); ++r) {
+            int i = ranking.get(r);
+            out.println("# " + (r + 1) + "\t" + all.get(i).getName() + "\t" + String.format("%.0f\t%.0f", ratings.getRating(i), ratings.getDeviation(i)));
+        }
+        if (stopping != null) {
+            List<ClassManager.Factory<AI>> ais = stopping.getDescriptor().getAis();
+            out.println("# pair\tgames\tscore\terror\tdecided");
+            for (int i = 0; i < ais.size(); ++i)
+                for (int j = i + 1; j < ais.size(); ++j)
+                    out.println("# " + ais.get(i).getName() + "," + ais.get(j).getName() + "\t" + stopping.getGames(i, j) + "\t" +
+                        String.format("%.3f\t%.3f", stopping.getScore(i, j), stopping.getError(i, j)) + "\t" + stopping.isDecided(i, j));
+        }
+        out.flush();
+    }
+
+    private static <T> List<ClassManager.Factory<T>> select(Map<String, ClassManager.Factory<T>> factories, List<String> names, String kind) {
+        List<ClassManager.Factory<T>> result = new ArrayList<ClassManager.Factory<T>>();
+        for (String name : names) {
+            ClassManager.Factory<T> f = factories.get(name);
+            if (f == null)
+                throw new IllegalArgumentException("Unknown " + kind + " " + name + " (available: " + factories.keySet() + ")");
+            result.add(f);
+        }
+        return result;
+    }
+
+    /**
+     * Tune given AI against all AIs of given tournament (including itself, with default parameters), printing the
+     * estimate after each iteration.
+     */
+    private static void tune(ClassManager.Factory<AI> candidate, Tournament.Descriptor descriptor, int threads, long timeout, long games, long iterations, File checkpoint, long seed) throws IOException {
+        if (descriptor.getTeams() != 2 || descriptor.getGenerators().size() != 1)
+            throw new IllegalArgumentException("Tuning requires two teams and a single generator");
+        Tuner tuner = new Tuner(candidate, descriptor.getAis(), descriptor.getGenerators().get(0), descriptor.getRules());
+        tuner.setThreads(threads);
+        if (games > 0)
+            tuner.setGames((int)Math.min(games, Integer.MAX_VALUE));
+        tuner.setIterations(iterations);
+        tuner.setSeed(seed);
+        if (timeout > 0)
+            tuner.setSandbox(new Sandbox(5 * timeout, timeout, 3));
+        tuner.setCheckpoint(checkpoint);
+        System.out.println("# iteration\tscore\tparameters");
+        tuner.setListener(new Tuner.Listener() {
+            @Override
+            public void iterated(long iteration, Map<String, Double> parameters, double score) {
+                System.out.println(iteration + "\t" + String.format("%.3f", score) + "\t" + parameters);
+            }
+        });
+        tuner.run();
+    }
+
+    /**
+     * Play chunks requested by a <code>Cluster</code> coordinator (see its protocol), until input is closed.
+     */
+    private static void work(Tournament.Descriptor descriptor, Tournament.Executor.Mode mode, int threads, long timeout, Adjudicator adjudicator, final PrintStream protocol) throws IOException {
+        Tournament.Executor executor = new Tournament.Executor(descriptor, new Tournament.Executor.Listener() {
+            @Override
+            public void finished(Tournament.Match match, Simulator simulator) {
+                synchronized (protocol) {
+                    protocol.println("R " + match.getSequence() + " " + simulator.getGame().getWinner() + " " + simulator.getTurn() + " " + simulator.isAdjudicated());
+                }
+            }
+        }, mode, threads);
+        if (timeout > 0)
+            executor.setSandbox(new Sandbox(5 * timeout, timeout, 3));
+        executor.setAdjudicator(adjudicator);
+        protocol.println("READY " + descriptor.getFingerprint());
+        protocol.flush();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+        for (String line; (line = in.readLine()) != null && !line.equals("QUIT");) {
+            String[] parts = line.split(" ");
+            if (!parts[0].equals("RUN") || parts.length != 3)
+                throw new IOException("Unexpected message from coordinator (" + line + ")");
+            long first = Long.parseLong(parts[1]);
+            executor.setCursor(first);
+            executor.setLimit(first + Long.parseLong(parts[2]));
+            executor.run();
+            synchronized (protocol) {
+                protocol.println("DONE " + first);
+                protocol.flush();
+            }
+        }
+    }
+
+    /**
+     * Entry point which does not load any AWT class (unlike <code>Program</code>, which links Swing).
+     */
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Run a tournament according to given arguments.
+     * @return exit status
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        List<String> aiNames = new ArrayList<String>(), generatorNames = new ArrayList<String>();
+        int pawns = 4, teams = 2, threads = Runtime.getRuntime().availableProcessors();
+        Integer actions = null, health = null;
+        int moveCost = 1, stanceCost = 2;
+        int staleLimit = Rules.STALE_LIMIT, repetitions = Rules.REPETITIONS, adjudication = 0;
+        Stance stance = Stance.Rock;
+        long matches = -1, timeout = 2000;
+        int processes = 0, chunk = 16;
+        double sprt = 0, confidence = 0, margin = 0.1;
+        String schedule = "cartesian";
+        long rounds = 1, seed = 0;
+        Tournament.Pairing pairing = Tournament.Pairing.NONE;
+        Tournament.Executor.Mode mode = Tournament.Executor.Mode.PLATFORM;
+        boolean worker = false;
+        String output = null, tune = null, checkpoint = null;
+        long iterations = 0;
+        String adjudicate = null;
+        double adjudicateThreshold = 0.95;
+        int adjudicateRounds = 3;
+        // Arguments forwarded to worker JVMs
+        List<String> arguments = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                String arg = args[i];
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    System.out.print(USAGE);
+                    return 0;
+                }
+                if (arg.equals("--worker")) {
+                    worker = true;
+                    continue;
+                }
+                if (i + 1 >= args.length)
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                String value = args[++i];
+                if (arg.equals("--ai"))
+                    aiNames.add(value);
+                else if (arg.equals("--jar"))
+                    ClassManager.add(value);
+                else if (arg.equals("--generator"))
+                    generatorNames.add(value);
+                else if (arg.equals("--pawns"))
+                    pawns = Integer.parseInt(value);
+                else if (arg.equals("--actions"))
+                    actions = Integer.parseInt(value);
+                else if (arg.equals("--health"))
+                    health = Integer.parseInt(value);
+                else if (arg.equals("--move-cost"))
+                    moveCost = Integer.parseInt(value);
+                else if (arg.equals("--stance-cost"))
+                    stanceCost = Integer.parseInt(value);
+                else if (arg.equals("--stale-limit"))
+                    staleLimit = Integer.parseInt(value);
+                else if (arg.equals("--repetitions"))
+                    repetitions = Integer.parseInt(value);
+                else if (arg.equals("--adjudication"))
+                    adjudication = Integer.parseInt(value);
+                else if (arg.equals("--adjudicate"))
+                    adjudicate = value;
+                else if (arg.equals("--adjudicate-threshold"))
+                    adjudicateThreshold = Double.parseDouble(value);
+                else if (arg.equals("--adjudicate-rounds"))
+                    adjudicateRounds = Integer.parseInt(value);
+                else if (arg.equals("--stance"))
+                    stance = Stance.valueOf(value);
+                else if (arg.equals("--teams"))
+                    teams = Integer.parseInt(value);
+                else if (arg.equals("--matches"))
+                    matches = Long.parseLong(value);
+                else if (arg.equals("--threads"))
+                    threads = Integer.parseInt(value);
+                else if (arg.equals("--timeout"))
+                    timeout = Long.parseLong(value);
+                else if (arg.equals("--output"))
+                    output = value;
+                else if (arg.equals("--seed"))
+                    seed = Long.parseLong(value);
+                else if (arg.equals("--mode"))
+                    mode = Tournament.Executor.Mode.valueOf(value.toUpperCase());
+                else if (arg.equals("--pairing"))
+                    pairing = Tournament.Pairing.valueOf(value.toUpperCase());
+                else if (arg.equals("--schedule"))
+                    schedule = value;
+                else if (arg.equals("--rounds"))
+                    rounds = Long.parseLong(value);
+                else if (arg.equals("--sprt"))
+                    sprt = Double.parseDouble(value);
+                else if (arg.equals("--confidence"))
+                    confidence = Double.parseDouble(value);
+                else if (arg.equals("--margin"))
+                    margin = Double.parseDouble(value);
+                else if (arg.equals("--processes"))
+                    processes = Integer.parseInt(value);
+                else if (arg.equals("--chunk"))
+                    chunk = Integer.parseInt(value);
+                else if (arg.equals("--tune"))
+                    tune = value;
+                else if (arg.equals("--iterations"))
+                    iterations = Long.parseLong(value);
+                else if (arg.equals("--checkpoint"))
+                    checkpoint = value;
+                else
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                if (!arg.equals("--output") && !arg.equals("--processes") && !arg.equals("--matches")) {
+                    arguments.add(arg);
+                    arguments.add(value);
+                }
+            }
+            Rules defaults = new Rules(pawns);
+            Rules rules = new Rules(pawns, actions == null ? defaults.getActions() : actions,
+                health == null ? defaults.getHealth() : health, moveCost, stanceCost, stance, staleLimit, repetitions, adjudication);
+            Map<String, ClassManager.Factory<AI>> ais = ClassManager.getSubclasses(AI.class, "koth.user");
+            Map<String, ClassManager.Factory<Generator>> generators = ClassManager.getSubclasses(Generator.class, "koth.user");
+            if (generatorNames.isEmpty())
+                generatorNames.add("jlb.Cross");
+            Tournament.Descriptor descriptor = new Tournament.Descriptor(
+                aiNames.isEmpty() ? ais.values() : select(ais, aiNames, "AI"),
+                select(generators, generatorNames, "generator"), rules, teams, seed, pairing);
+            Adjudicator adjudicator = null;
+            if (adjudicate != null) {
+                Adjudicator.Estimator estimator;
+                if (adjudicate.equals("material"))
+                    estimator = Adjudicator.material(1);
+                else if (adjudicate.equals("rollout"))
+                    estimator = Adjudicator.rollout(16, 100);
+                else
+                    estimator = Adjudicator.tablebase(Tablebase.load(new File(adjudicate)));
+                adjudicator = new Adjudicator(estimator, adjudicateThreshold, adjudicateRounds);
+            }
+            if (tune != null) {
+                if (processes > 0 || worker)
+                    throw new IllegalArgumentException("Tuning is not supported with worker JVMs");
+                ClassManager.Factory<AI> candidate = ais.get(tune);
+                if (candidate == null)
+                    throw new IllegalArgumentException("Unknown AI " + tune + " (available: " + ais.keySet() + ")");
+                tune(candidate, descriptor, threads, timeout, matches, iterations, new File(checkpoint == null ? tune + ".tune" : checkpoint), seed);
+                return 0;
+            }
+            Stopping stopping = null;
+            if (sprt > 0)
+                stopping = Stopping.sprt(descriptor, sprt, 0.05, 0.05);
+            else if (confidence > 0)
+                stopping = Stopping.interval(descriptor, confidence, margin);
+            if (stopping != null && processes > 0)
+                throw new IllegalArgumentException("Early stopping is not supported with worker JVMs");
+            if (!schedule.equals("cartesian") && processes > 0)
+                throw new IllegalArgumentException("Worker JVMs only support the cartesian schedule");
+            // With early stopping (or another schedule), matches are played until all pairs are decided (or the schedule
+            // is exhausted)
+            long limit = matches >= 0 ? matches : stopping != null || !schedule.equals("cartesian") ? Long.MAX_VALUE : descriptor.getSize();
+            if (worker) {
+                // Standard output is reserved to the protocol, hence AIs print to standard error
+                PrintStream protocol = System.out;
+                System.setOut(System.err);
+                work(descriptor, mode, threads, timeout, adjudicator, protocol);
+                return 0;
+            }
+            PrintStream out = output == null ? System.out : new PrintStream(new BufferedOutputStream(new FileOutputStream(output)), false);
+            try {
+                Batch batch = new Batch(out);
+                batch.ratings = new Ratings(descriptor);
+                Scheduler scheduler;
+                if (schedule.equals("cartesian"))
+                    scheduler = null;
+                else if (schedule.equals("round-robin"))
+                    scheduler = new Scheduler.RoundRobin(descriptor, rounds);
+                else if (schedule.equals("swiss"))
+                    scheduler = new Scheduler.Swiss(descriptor, batch.ratings, rounds);
+                else if (schedule.equals("sampled"))
+                    scheduler = new Scheduler.Sampled(descriptor, matches >= 0 ? 0 : 16 * descriptor.getAis().size(), seed);
+                else
+                    throw new IllegalArgumentException("Unknown schedule " + schedule);
+                if (adjudicator != null)
+                    out.println("# adjudicator\t" + adjudicator.getEstimator() + "\tthreshold\t" + adjudicator.getThreshold() + "\trounds\t" + adjudicator.getRounds());
+                out.println("# sequence\tgenerator\tais\twinner\tturns\tseed\tadjudicated");
+                if (processes > 0)
+                    new Cluster(descriptor, arguments, batch, processes, chunk, limit).run();
+                else {
+                    Tournament.Executor executor = new Tournament.Executor(descriptor, batch, mode, threads);
+                    if (timeout > 0)
+                        executor.setSandbox(new Sandbox(5 * timeout, timeout, 3));
+                    executor.setAdjudicator(adjudicator);
+                    executor.setLimit(limit);
+                    executor.setScheduler(scheduler);
+                    if (stopping != null) {
+                        batch.stopping = stopping;
+                        stopping.attach(executor);
+                    }
+                    executor.run();
+                }
+                batch.summarize();
+            } finally {
+                if (out != System.out)
+                    out.close();
+            }
+            return 0;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return 2;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+    }
+
+}
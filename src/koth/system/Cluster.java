@@ -0,0 +1,211 @@
+package koth.system;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Tournament coordinator which shards matches among local worker JVMs.
+ * Each worker runs <code>Batch</code> in worker mode, with the same arguments as the coordinator, and the coordinator
+ * talks to it using a line protocol over its standard streams:
+ * <ul>
+ *     <li>worker: <code>READY fingerprint</code>, once the descriptor is built</li>
+ *     <li>coordinator: <code>RUN first count</code>, to play a chunk of consecutive sequence numbers</li>
+ *     <li>worker: <code>R sequence winner turns adjudicated</code>, for each finished match</li>
+ *     <li>worker: <code>DONE first</code>, once the chunk is completed</li>
+ *     <li>coordinator: <code>QUIT</code></li>
+ * </ul>
+ * A worker which crashes (or breaks the protocol) is restarted, and its chunk is reassigned; results already received
+ * for this chunk are not reported twice.
+ */
+public final class Cluster implements Runnable {
+
+    public static interface Listener {
+
+        public void finished(Tournament.Match match, int winner, int turns, boolean adjudicated);
+
+    }
+
+    private final Tournament.Descriptor descriptor;
+    private final List<String> command;
+    private final Listener listener;
+    private final int processes, chunk, maxRestarts;
+    private final long limit;
+    private final Deque<long[]> requeued;
+    private final Set<Long> completed;
+    private final List<Process> running;
+    private long cursor;
+    private int restarts;
+    private volatile boolean stopped;
+
+    /**
+     * Create a coordinator for matches <code>[0, limit)</code> of given tournament.
+     * Workers are started with given <code>Batch</code> arguments (which must describe the same tournament), and receive
+     * chunks of <code>chunk</code> matches.
+     */
+    public Cluster(Tournament.Descriptor descriptor, List<String> arguments, Listener listener, int processes, int chunk, long limit) {
+        if (descriptor == null || arguments == null || listener == null)
+            throw new NullPointerException();
+        if (processes <= 0 || chunk <= 0 || limit < 0)
+            throw new IllegalArgumentException();
+        this.descriptor = descriptor;
+        this.listener = listener;
+        this.processes = processes;
+        this.chunk = chunk;
+        this.limit = limit;
+        maxRestarts = 4 * processes;
+        command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        // Forward JVM options, except debugging agents
+        for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments())
+            if (!option.startsWith("-agentlib") && !option.startsWith("-Xrunjdwp") && !option.startsWith("-javaagent"))
+                command.add(option);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Batch.class.getName());
+        command.add("--worker");
+        command.addAll(arguments);
+        requeued = new ArrayDeque<long[]>();
+        completed = new HashSet<Long>();
+        running = new ArrayList<Process>();
+    }
+
+    private synchronized long[] next() {
+        if (stopped)
+            return null;
+        long[] c = requeued.poll();
+        if (c == null && cursor < limit) {
+            c = new long[] {cursor, Math.min(chunk, limit - cursor)};
+            cursor += c[1];
+        }
+        return c;
+    }
+
+    private synchronized void requeue(long[] c) {
+        requeued.addFirst(c);
+    }
+
+    private synchronized boolean restart() {
+        return !stopped && restarts++ < maxRestarts;
+    }
+
+    private synchronized boolean complete(long sequence) {
+        return completed.add(sequence);
+    }
+
+    private synchronized boolean isDone() {
+        return stopped || (cursor >= limit && requeued.isEmpty());
+    }
+
+    /**
+     * Get how many distinct matches were reported.
+     */
+    public synchronized int getCompleted() {
+        return completed.size();
+    }
+
+    private void work(Process process) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        PrintStream out = new PrintStream(process.getOutputStream(), true, "UTF-8");
+        String line = in.readLine();
+        if (line == null || !line.equals("READY " + descriptor.getFingerprint()))
+            throw new IOException("Worker failed to start (" + line + ")");
+        for (long[] c; (c = next()) != null;) {
+            try {
+                out.println("RUN " + c[0] + " " + c[1]);
+                if (out.checkError())
+                    throw new IOException("Worker closed its input");
+                for (;;) {
+                    line = in.readLine();
+                    if (line == null)
+                        throw new IOException("Worker exited");
+                    String[] parts = line.split(" ");
+                    if (parts[0].equals("DONE") && parts.length == 2 && Long.parseLong(parts[1]) == c[0])
+                        break;
+                    if (!parts[0].equals("R") || parts.length != 5)
+                        throw new IOException("Unexpected message from worker (" + line + ")");
+                    long sequence = Long.parseLong(parts[1]);
+                    if (complete(sequence))
+                        listener.finished(descriptor.getMatch(sequence), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), Boolean.parseBoolean(parts[4]));
+                }
+            } catch (IOException e) {
+                requeue(c);
+                throw e;
+            } catch (RuntimeException e) {
+                requeue(c);
+                throw new IOException("Malformed message from worker (" + line + ")", e);
+            }
+        }
+        out.println("QUIT");
+        out.close();
+    }
+
+    private Runnable create(final int index) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                do {
+                    Process process;
+                    try {
+                        ProcessBuilder builder = new ProcessBuilder(command);
+                        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+                        process = builder.start();
+                    } catch (IOException e) {
+                        System.err.println("Failed to start worker " + index + ": " + e.getMessage());
+                        continue;
+                    }
+                    synchronized (running) {
+                        running.add(process);
+                    }
+                    try {
+                        work(process);
+                        process.waitFor();
+                        return;
+                    } catch (IOException e) {
+                        if (!stopped)
+                            System.err.println("Worker " + index + " failed: " + e.getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } finally {
+                        process.destroy();
+                        synchronized (running) {
+                            running.remove(process);
+                        }
+                    }
+                } while (!isDone() && restart());
+            }
+        };
+    }
+
+    @Override
+    public void run() {
+        Thread[] threads = new Thread[processes];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(create(i), "Cluster-" + i);
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                stop();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!stopped && getCompleted() < limit)
+            System.err.println("Cluster gave up after " + restarts + " restarts, " + (limit - getCompleted()) + " matches were not played");
+    }
+
+    /**
+     * Stop all workers (matches in progress are discarded).
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (running) {
+            for (Process p : running)
+                p.destroy();
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+package koth.system;
+
+import koth.game.*;
+import koth.util.Vector;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Chronological log of actions, packed into primitive arrays.
+ * Each action is stored as a single <code>long</code> (team, pawn id, pawn stance, health and location, followed stance
+ * and move), and is decoded on access. Offsets of each round are recorded as well.
+ */
+public final class History {
+
+    // Layout (from low bits): move (3), stance (2), pawn stance (2), health (11), id (8), team (6), x (16), y (16)
+    private static final int MAX_HEALTH = (1 << 11) - 1, MAX_ID = (1 << 8) - 1, MAX_TEAM = (1 << 6) - 1;
+
+    private long[] actions;
+    private int size;
+    private int[] rounds;
+    private int roundCount;
+    private final List<Action> view;
+
+    /**
+     * Create an empty history.
+     */
+    public History() {
+        actions = new long[64];
+        rounds = new int[16];
+        view = new View();
+    }
+
+    /**
+     * Pack given action.
+     * @throws IllegalArgumentException if the pawn cannot be represented (too large team, id, health or location)
+     */
+    public static long encode(Action action) {
+        Pawn pawn = action.getPawn();
+        Vector l = pawn.getLocation();
+        if (pawn.getTeam() < 0 || pawn.getTeam() > MAX_TEAM || pawn.getId() < 0 || pawn.getId() > MAX_ID ||
+            pawn.getHealth() < 0 || pawn.getHealth() > MAX_HEALTH || l.getX() != (short)l.getX() || l.getY() != (short)l.getY())
+            throw new IllegalArgumentException("Cannot encode " + action);
+        return action.getMove().ordinal() |
+            action.getStance().ordinal() << 3 |
+            pawn.getStance().ordinal() << 5 |
+            pawn.getHealth() << 7 |
+            (long)pawn.getId() << 18 |
+            (long)pawn.getTeam() << 26 |
+            ((long)l.getX() & 0xffff) << 32 |
+            ((long)l.getY() & 0xffff) << 48;
+    }
+
+    /**
+     * Unpack given action.
+     */
+    public static Action decode(long bits) {
+        Pawn pawn = new Pawn(
+            (int)(bits >>> 26) & MAX_TEAM,
+            (int)(bits >>> 18) & MAX_ID,
+            new Vector((short)(bits >>> 32), (short)(bits >>> 48)),
+            Stance.fromInt((int)(bits >>> 5) & 3),
+            (int)(bits >>> 7) & MAX_HEALTH
+        );
+        return new Action(pawn, Stance.fromInt((int)(bits >>> 3) & 3), Move.fromInt((int)bits & 7));
+    }
+
+    /**
+     * Append an action.
+     */
+    public void add(Action action) {
+        long bits = encode(action);
+        if (size == actions.length)
+            actions = Arrays.copyOf(actions, size * 2);
+        actions[size++] = bits;
+    }
+
+    /**
+     * Mark the beginning of a new round (i.e. next action is the first of this round).
+     */
+    public void startRound() {
+        if (roundCount == rounds.length)
+            rounds = Arrays.copyOf(rounds, roundCount * 2);
+        rounds[roundCount++] = size;
+    }
+
+    /**
+     * Remove all actions and rounds (buffers are kept).
+     */
+    public void clear() {
+        size = 0;
+        roundCount = 0;
+    }
+
+    /**
+     * Get how many actions were recorded.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the packed representation of specified action.
+     */
+    public long getPacked(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        return actions[index];
+    }
+
+    /**
+     * Get specified action.
+     */
+    public Action get(int index) {
+        return decode(getPacked(index));
+    }
+
+    /**
+     * Get how many rounds were started.
+     */
+    public int getRoundCount() {
+        return roundCount;
+    }
+
+    /**
+     * Get index of the first action of specified round.
+     */
+    public int getRoundStart(int round) {
+        if (round < 0 || round >= roundCount)
+            throw new IndexOutOfBoundsException();
+        return rounds[round];
+    }
+
+    /**
+     * Get a read-only view of actions (not a copy, it reflects further additions).
+     */
+    public List<Action> asList() {
+        return view;
+    }
+
+    private final class View extends AbstractList<Action> implements RandomAccess {
+
+        @Override
+        public Action get(int index) {
+            return History.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+    }
+
+}
@@ -0,0 +1,296 @@
+package koth.system;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Durable log of tournament results, used to resume a tournament after a crash or a restart.
+ * Each finished match is appended to the log (sequence number and winner, with a checksum) and synced to disk. Every
+ * few records, results are compacted into a snapshot file (written atomically), and the log is emptied.
+ * Results below the watermark are only kept as totals per match of a round (journals rely on the default schedule),
+ * hence memory and snapshots do not grow with the length of the tournament.
+ * When a journal is opened, the snapshot and the valid prefix of the log are loaded (a torn record is discarded).
+ * A journal is an <code>Executor.Filter</code> which skips completed matches, and its watermark (the first match that
+ * is not completed) is where executors resume.
+ */
+public final class Journal implements Tournament.Executor.Listener, Tournament.Executor.Filter, Closeable {
+
+    private static final int LOG_MAGIC = 0x4b4a4c31, SNAPSHOT_MAGIC_V1 = 0x4b4a5331, SNAPSHOT_MAGIC = 0x4b4a5332;
+    private static final int HEADER = 12, RECORD = 16;
+
+    private final File file, snapshot;
+    private final long fingerprint;
+    private final int interval;
+    private final long size;
+    private final int teams;
+    private final FileChannel log;
+    // Results above the watermark, and totals below it (per match index, indexed by winner + 1)
+    private final Map<Long, Integer> results;
+    private final Map<Long, long[]> totals;
+    private long watermark;
+    private int pending;
+
+    private Journal(File file, long fingerprint, int interval, long size, int teams) throws IOException {
+        this.file = file;
+        this.snapshot = new File(file.getPath() + ".snapshot");
+        this.fingerprint = fingerprint;
+        this.interval = interval;
+        this.size = size;
+        this.teams = teams;
+        results = new HashMap<Long, Integer>();
+        totals = new HashMap<Long, long[]>();
+        loadSnapshot();
+        log = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            loadLog();
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open (or create) the journal stored in given file, for given tournament.
+     * A snapshot is written every <code>interval</code> results.
+     * @throws java.io.IOException if the journal is invalid, or was recorded for another tournament
+     */
+    public static Journal open(File file, Tournament.Descriptor descriptor, int interval) throws IOException {
+        if (file == null || descriptor == null)
+            throw new NullPointerException();
+        if (interval <= 0)
+            throw new IllegalArgumentException();
+        return new Journal(file, descriptor.getFingerprint(), interval, descriptor.getSize(), descriptor.getTeams());
+    }
+
+    /**
+     * Open (or create) the journal stored in given file, for given tournament, with a snapshot every 1000 results.
+     */
+    public static Journal open(File file, Tournament.Descriptor descriptor) throws IOException {
+        return open(file, descriptor, 1000);
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), offset, length);
+        return (int)crc.getValue();
+    }
+
+    private void put(long sequence, int winner) throws IOException {
+        if (winner < -1 || winner >= teams)
+            throw new IOException("Invalid winner " + winner + " for match " + sequence);
+        if (sequence < watermark)
+            return;
+        results.put(sequence, winner);
+        for (Integer w; (w = results.remove(watermark)) != null; ++watermark)
+            count(watermark % size, w + 1, 1);
+    }
+
+    private void count(long index, int outcome, long count) {
+        long[] t = totals.get(index);
+        if (t == null)
+            totals.put(index, t = new long[teams + 1]);
+        t[outcome] += count;
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (!snapshot.exists())
+            return;
+        byte[] bytes = Files.readAllBytes(snapshot.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int magic = bytes.length < 20 ? 0 : buffer.getInt();
+        if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1)
+            throw new IOException(snapshot + " is not a journal snapshot");
+        if (buffer.getLong() != fingerprint)
+            throw new IOException(snapshot + " was recorded for another tournament");
+        if (buffer.getInt(bytes.length - 4) != checksum(buffer, 0, bytes.length - 4))
+            throw new IOException(snapshot + " is corrupted");
+        buffer.limit(bytes.length - 4);
+        try {
+            // Version 1 only stores individual results
+            if (magic == SNAPSHOT_MAGIC) {
+                watermark = buffer.getLong();
+                int count = buffer.getInt();
+                if (watermark < 0 || count < 0)
+                    throw new IOException(snapshot + " is corrupted");
+                for (int i = 0; i < count; ++i) {
+                    long index = buffer.getLong();
+                    for (int o = 0; o <= teams; ++o)
+                        count(index, o, buffer.getLong());
+                }
+            }
+            int count = buffer.getInt();
+            if (count < 0)
+                throw new IOException(snapshot + " is corrupted");
+            for (int i = 0; i < count; ++i)
+                put(buffer.getLong(), buffer.getInt());
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException(snapshot + " is corrupted");
+        }
+        if (buffer.hasRemaining())
+            throw new IOException(snapshot + " is corrupted");
+    }
+
+    private void loadLog() throws IOException {
+        long size = log.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        if (size < HEADER) {
+            // New (or torn) log
+            header.putInt(LOG_MAGIC).putLong(fingerprint).flip();
+            log.truncate(0);
+            log.write(header, 0);
+            log.force(true);
+            log.position(HEADER);
+            return;
+        }
+        log.read(header, 0);
+        header.flip();
+        if (header.getInt() != LOG_MAGIC)
+            throw new IOException(file + " is not a journal");
+        if (header.getLong() != fingerprint)
+            throw new IOException(file + " was recorded for another tournament");
+        // Load records, up to the first invalid one
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        long position = HEADER;
+        while (position + RECORD <= size) {
+            record.clear();
+            log.read(record, position);
+            if (record.getInt(12) != checksum(record, 0, 12))
+                break;
+            put(record.getLong(0), record.getInt(8));
+            position += RECORD;
+            ++pending;
+        }
+        if (position < size) {
+            log.truncate(position);
+            log.force(true);
+        }
+        log.position(position);
+    }
+
+    /**
+     * Record result of given match, and write a snapshot if needed.
+     */
+    public synchronized void record(long sequence, int winner) throws IOException {
+        if (contains(sequence))
+            return;
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        record.putLong(sequence).putInt(winner);
+        record.putInt(checksum(record, 0, 12));
+        record.flip();
+        while (record.hasRemaining())
+            log.write(record);
+        log.force(false);
+        put(sequence, winner);
+        if (++pending >= interval)
+            snapshot();
+    }
+
+    @Override
+    public void finished(Tournament.Match match, Simulator simulator) {
+        try {
+            record(match.getSequence(), simulator.getGame().getWinner());
+        } catch (IOException e) {
+            System.err.println("Failed to write journal: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean accept(Tournament.Match match) {
+        return !contains(match.getSequence());
+    }
+
+    /**
+     * Compact all results into the snapshot file, and empty the log.
+     */
+    public synchronized void snapshot() throws IOException {
+        List<Long> sequences = new ArrayList<Long>(results.keySet());
+        Collections.sort(sequences);
+        List<Long> indices = new ArrayList<Long>(totals.keySet());
+        Collections.sort(indices);
+        ByteBuffer buffer = ByteBuffer.allocate(32 + (8 + 8 * (teams + 1)) * indices.size() + 12 * sequences.size());
+        buffer.putInt(SNAPSHOT_MAGIC).putLong(fingerprint).putLong(watermark).putInt(indices.size());
+        for (long i : indices) {
+            buffer.putLong(i);
+            for (long c : totals.get(i))
+                buffer.putLong(c);
+        }
+        buffer.putInt(sequences.size());
+        for (long s : sequences)
+            buffer.putLong(s).putInt(results.get(s));
+        buffer.putInt(checksum(buffer, 0, buffer.position()));
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // A crash before this point leaves records in both files, which is harmless
+        log.truncate(HEADER);
+        log.force(true);
+        log.position(HEADER);
+        pending = 0;
+    }
+
+    /**
+     * Get whether given match is completed.
+     */
+    public synchronized boolean contains(long sequence) {
+        return sequence < watermark || results.containsKey(sequence);
+    }
+
+    /**
+     * Get sequence number of the first match which is not completed.
+     */
+    public synchronized long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Get how many matches are completed.
+     */
+    public synchronized long getSize() {
+        return watermark + results.size();
+    }
+
+    /**
+     * Get winners of completed matches above the watermark, sorted by sequence number.
+     */
+    public synchronized SortedMap<Long, Integer> getResults() {
+        return new TreeMap<Long, Integer>(results);
+    }
+
+    /**
+     * Get outcomes of completed matches below the watermark, for each match of a round (by index, see
+     * <code>Descriptor.getMatches</code>): how many of them were draws, then how many were won by each team.
+     */
+    public synchronized SortedMap<Long, long[]> getTotals() {
+        SortedMap<Long, long[]> copy = new TreeMap<Long, long[]>();
+        for (Map.Entry<Long, long[]> e : totals.entrySet())
+            copy.put(e.getKey(), e.getValue().clone());
+        return copy;
+    }
+
+    /**
+     * Write a snapshot, and close the log.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!log.isOpen())
+            return;
+        try {
+            if (pending > 0)
+                snapshot();
+        } finally {
+            log.close();
+        }
+    }
+
+}
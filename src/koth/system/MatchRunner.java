@@ -0,0 +1,297 @@
+package koth.system;
+
+import koth.game.AI;
+import koth.game.Generator;
+import koth.game.Rules;
+import koth.util.ClassManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Play a batch of matches of a single lineup, in parallel and without any GUI, and aggregate outcomes.
+ * Sides are rotated from a match to the next (so that each AI plays each side equally), and consecutive rotations
+ * share their seed (mirrored pairs). Outcomes are attributed to AIs by their index in the given lineup.
+ */
+public final class MatchRunner {
+
+    /**
+     * Receive partial results, after each finished match. Calls are serialized, but come from worker threads.
+     */
+    public static interface Callback {
+
+        public void progress(Result partial);
+
+    }
+
+    /**
+     * Aggregated outcomes of a lineup (an immutable snapshot).
+     */
+    public static final class Result {
+
+        private final int games, draws, adjudicated;
+        private final int[] wins;
+        private final long turns;
+        private final Usage[] usages;
+
+        private Result(int games, int[] wins, int draws, int adjudicated, long turns, Usage[] usages) {
+            this.games = games;
+            this.wins = wins;
+            this.draws = draws;
+            this.adjudicated = adjudicated;
+            this.turns = turns;
+            this.usages = usages;
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        /**
+         * Get how many games were won by specified AI (index in lineup).
+         */
+        public int getWins(int ai) {
+            return wins[ai];
+        }
+
+        /**
+         * Get how many games were lost by specified AI (i.e. won by another AI).
+         */
+        public int getLosses(int ai) {
+            return games - wins[ai] - draws;
+        }
+
+        public int getDraws() {
+            return draws;
+        }
+
+        /**
+         * Get how many games were ended by the adjudicator (they are counted as wins of the leader).
+         */
+        public int getAdjudicated() {
+            return adjudicated;
+        }
+
+        /**
+         * Get win rate of specified AI, or 0 if no game was played.
+         */
+        public double getWinRate(int ai) {
+            return games == 0 ? 0 : (double)wins[ai] / games;
+        }
+
+        /**
+         * Get draw rate, or 0 if no game was played.
+         */
+        public double getDrawRate() {
+            return games == 0 ? 0 : (double)draws / games;
+        }
+
+        /**
+         * Get Wilson score interval of the win rate of specified AI, with <code>z</code> standard deviations (e.g. 1.96
+         * for 95% confidence).
+         */
+        public double[] getWinInterval(int ai, double z) {
+            return wilson(wins[ai], games, z);
+        }
+
+        /**
+         * Get Wilson score interval of the draw rate.
+         */
+        public double[] getDrawInterval(double z) {
+            return wilson(draws, games, z);
+        }
+
+        /**
+         * Get average number of turns of a game, or 0 if no game was played.
+         */
+        public double getMeanLength() {
+            return games == 0 ? 0 : (double)turns / games;
+        }
+
+        /**
+         * Get resources used by calls of specified AI, over all games.
+         */
+        public Usage getUsage(int ai) {
+            return usages[ai];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Result{games=" + games + ", wins=[");
+            for (int i = 0; i < wins.length; ++i)
+                sb.append(i == 0 ? "" : ", ").append(wins[i]);
+            return sb.append("], draws=").append(draws).append(", adjudicated=").append(adjudicated)
+                .append(String.format(", length=%.1f}", getMeanLength())).toString();
+        }
+
+    }
+
+    private static double[] wilson(int k, int n, double z) {
+        if (n == 0)
+            return new double[] {0, 1};
+        double p = (double)k / n, z2 = z * z;
+        double center = (p + z2 / (2 * n)) / (1 + z2 / n);
+        double half = z / (1 + z2 / n) * Math.sqrt(p * (1 - p) / n + z2 / (4.0 * n * n));
+        return new double[] {Math.max(0, center - half), Math.min(1, center + half)};
+    }
+
+    private volatile Callback callback;
+    private volatile Sandbox sandbox;
+    private volatile long seed;
+    private volatile Adjudicator adjudicator;
+    private volatile Tournament.Executor executor;
+
+    public Callback getCallback() {
+        return callback;
+    }
+
+    /**
+     * Set callback notified of partial results (<code>null</code> to disable).
+     */
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    public Sandbox getSandbox() {
+        return sandbox;
+    }
+
+    /**
+     * Set sandbox settings used to call AIs (by default, <code>null</code>: AIs are called directly).
+     */
+    public void setSandbox(Sandbox sandbox) {
+        this.sandbox = sandbox;
+    }
+
+    public Adjudicator getAdjudicator() {
+        return adjudicator;
+    }
+
+    /**
+     * Set adjudicator which ends decided games early (by default, <code>null</code>: games are played until they are
+     * finished).
+     */
+    public void setAdjudicator(Adjudicator adjudicator) {
+        this.adjudicator = adjudicator;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set seed from which match seeds are derived (0 by default), hence runs with the same seed are reproducible.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Play <code>n</code> matches of given AIs (one per team, in this order for the first match), using
+     * <code>parallelism</code> worker threads, and wait for completion.
+     */
+    public Result run(List<ClassManager.Factory<AI>> ais, final ClassManager.Factory<Generator> generator, Rules rules, final int n, int parallelism) {
+        if (ais == null || generator == null || rules == null)
+            throw new NullPointerException();
+        if (n < 0 || parallelism <= 0)
+            throw new IllegalArgumentException();
+        final List<ClassManager.Factory<AI>> lineup = Collections.unmodifiableList(new ArrayList<ClassManager.Factory<AI>>(ais));
+        final int teams = lineup.size();
+        final Tournament.Descriptor descriptor = new Tournament.Descriptor(lineup, Collections.singletonList(generator), rules, teams, seed, Tournament.Pairing.MIRRORED);
+        final Accumulator accumulator = new Accumulator(teams, callback);
+        Tournament.Executor executor = new Tournament.Executor(descriptor, accumulator, parallelism);
+        executor.setSandbox(sandbox);
+        executor.setAdjudicator(adjudicator);
+        executor.setLimit(n);
+        executor.setScheduler(new Scheduler() {
+            private long sequence;
+
+            @Override
+            public synchronized Tournament.Match next() {
+                if (sequence >= n)
+                    return null;
+                long s = sequence++;
+                // Match index is the rotation, i.e. the lineup index of the AI playing first
+                int rotation = (int)(s % teams);
+                List<ClassManager.Factory<AI>> rotated = new ArrayList<ClassManager.Factory<AI>>();
+                for (int t = 0; t < teams; ++t)
+                    rotated.add(lineup.get((t + rotation) % teams));
+                rotated = Collections.unmodifiableList(rotated);
+                long seed = descriptor.getSeed(s, s / teams, rotated, generator);
+                return new Tournament.Match(descriptor, s, rotation, 0, rotated, generator, seed);
+            }
+        });
+        this.executor = executor;
+        try {
+            executor.run();
+        } finally {
+            this.executor = null;
+        }
+        return accumulator.snapshot();
+    }
+
+    /**
+     * Play <code>n</code> matches of given AIs, using one worker thread per available processor.
+     */
+    public Result run(List<ClassManager.Factory<AI>> ais, ClassManager.Factory<Generator> generator, Rules rules, int n) {
+        return run(ais, generator, rules, n, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Stop current run (matches in progress are discarded, and <code>run</code> returns partial results).
+     */
+    public void stop() {
+        Tournament.Executor e = executor;
+        if (e != null)
+            e.stop();
+    }
+
+    private static final class Accumulator implements Tournament.Executor.Listener {
+
+        private final int teams;
+        private final Callback callback;
+        private final int[] wins;
+        private final Usage[] usages;
+        private int games, draws, adjudicated;
+        private long turns;
+
+        public Accumulator(int teams, Callback callback) {
+            this.teams = teams;
+            this.callback = callback;
+            wins = new int[teams];
+            usages = new Usage[teams];
+            for (int i = 0; i < teams; ++i)
+                usages[i] = new Usage();
+        }
+
+        @Override
+        public synchronized void finished(Tournament.Match match, Simulator simulator) {
+            int rotation = match.getIndex();
+            int winner = simulator.getGame().getWinner();
+            ++games;
+            if (winner < 0)
+                ++draws;
+            else
+                ++wins[(winner + rotation) % teams];
+            if (simulator.isAdjudicated())
+                ++adjudicated;
+            turns += simulator.getTurn();
+            for (int t = 0; t < teams; ++t)
+                usages[(t + rotation) % teams].add(simulator.getUsage(t));
+            if (callback != null)
+                callback.progress(snapshot());
+        }
+
+        public synchronized Result snapshot() {
+            Usage[] us = new Usage[teams];
+            for (int i = 0; i < teams; ++i) {
+                us[i] = new Usage();
+                us[i].add(usages[i]);
+            }
+            return new Result(games, wins.clone(), draws, adjudicated, turns, us);
+        }
+
+    }
+
+}
@@ -0,0 +1,356 @@
+package koth.system;
+
+import koth.game.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Collection of turn plans played from opening positions, with their outcomes.
+ * A book records the first turns of finished tournament games (it is an <code>Executor.Listener</code>), and is stored as
+ * a sorted file of fixed-size entries, keyed by board, team to play and canonical position hash.
+ * Lookups are binary searches, and saving merges new games into existing entries, so a book improves over runs.
+ */
+public final class OpeningBook implements Tournament.Executor.Listener {
+
+    private static final int MAGIC = 0x4b4f4231;
+    private static final int MAX_ACTIONS = 6;
+
+    /**
+     * A turn plan played from a position, with its statistics.
+     */
+    private static final class Line implements Comparable<Line> {
+
+        public final long key, plan;
+        public int games, score;
+
+        public Line(long key, long plan) {
+            this.key = key;
+            this.plan = plan;
+        }
+
+        @Override
+        public int compareTo(Line o) {
+            int r = Long.compare(key, o.key);
+            return r == 0 ? Long.compare(plan, o.plan) : r;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Line && key == ((Line)o).key && plan == ((Line)o).plan;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(Game.mix(key ^ plan) >>> 32);
+        }
+
+    }
+
+    /**
+     * Sorted entries, stored in primitive arrays.
+     */
+    private static final class Table {
+
+        public final long[] keys, plans;
+        public final int[] games, scores;
+
+        public Table(List<Line> lines) {
+            int n = lines.size();
+            keys = new long[n];
+            plans = new long[n];
+            games = new int[n];
+            scores = new int[n];
+            for (int i = 0; i < n; ++i) {
+                Line l = lines.get(i);
+                keys[i] = l.key;
+                plans[i] = l.plan;
+                games[i] = l.games;
+                scores[i] = l.score;
+            }
+        }
+
+        public int first(long key) {
+            int lo = 0, hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < key)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+    }
+
+    private static final Comparator<Pawn> canonical = new Comparator<Pawn>() {
+        @Override
+        public int compare(Pawn a, Pawn b) {
+            int r = Integer.compare(a.getLocation().getY(), b.getLocation().getY());
+            return r == 0 ? Integer.compare(a.getLocation().getX(), b.getLocation().getX()) : r;
+        }
+    };
+
+    private final File file;
+    private final Rules rules;
+    private final int depth;
+    private volatile Table table;
+    private final Map<Line, Line> pending;
+
+    private OpeningBook(File file, Rules rules, int depth, Table table) {
+        this.file = file;
+        this.rules = rules;
+        this.depth = depth;
+        this.table = table;
+        pending = new HashMap<Line, Line>();
+    }
+
+    /**
+     * Open the book stored in given file (or create an empty book if the file does not exist).
+     * Only the first <code>depth</code> turns of each game are recorded.
+     * @throws java.io.IOException if the file is invalid, or was recorded with other rules
+     */
+    public static OpeningBook open(File file, Rules rules, int depth) throws IOException {
+        if (file == null || rules == null)
+            throw new NullPointerException();
+        if (depth <= 0)
+            throw new IllegalArgumentException();
+        List<Line> lines = new ArrayList<Line>();
+        if (file.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC)
+                    throw new IOException(file + " is not an opening book");
+                // Stall policy does not change openings, hence it is not recorded
+                Rules r = new Rules(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), Stance.fromInt(in.readInt()))
+                    .withStallPolicy(rules.getStaleLimit(), rules.getRepetitions(), rules.getAdjudication());
+                if (!r.equals(rules))
+                    throw new IOException(file + " was recorded with other rules (" + r + ")");
+                int count = in.readInt();
+                for (int i = 0; i < count; ++i) {
+                    Line l = new Line(in.readLong(), in.readLong());
+                    l.games = in.readInt();
+                    l.score = in.readInt();
+                    lines.add(l);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return new OpeningBook(file, rules, depth, new Table(lines));
+    }
+
+    /**
+     * Open the book stored in given file, recording the first 8 turns of each game.
+     */
+    public static OpeningBook open(File file, Rules rules) throws IOException {
+        return open(file, rules, 8);
+    }
+
+    /**
+     * Get associated rules.
+     */
+    public Rules getRules() {
+        return rules;
+    }
+
+    /**
+     * Get how many entries are stored (recorded games are only included after <code>save</code>).
+     */
+    public int getSize() {
+        return table.keys.length;
+    }
+
+    private static long getKey(Game game, int team) {
+        return Game.mix(game.getHash() ^ ((long)game.getBoard().hashCode() << 8) ^ team);
+    }
+
+    private static List<Pawn> getCanonicalPawns(Game game, int team) {
+        List<Pawn> pawns = new ArrayList<Pawn>(game.getPawns(team));
+        Collections.sort(pawns, canonical);
+        return pawns;
+    }
+
+    private int getCost(Pawn pawn, Action action) {
+        int cost = 0;
+        if (action.getMove() != Move.None)
+            cost += rules.getMoveCost();
+        if (pawn.getStance() != action.getStance())
+            cost += rules.getStanceCost();
+        return cost == 0 ? 1 : cost;
+    }
+
+    /**
+     * Get the best known turn plan for given team (at the beginning of its turn), or <code>null</code> if none.
+     * Plans are ranked by average score, then by number of games.
+     */
+    public List<Action> lookup(Game game, int team) {
+        Table t = table;
+        long key = getKey(game, team);
+        int best = -1;
+        for (int i = t.first(key); i < t.keys.length && t.keys[i] == key; ++i)
+            if (best < 0 || (long)t.scores[i] * t.games[best] > (long)t.scores[best] * t.games[i] ||
+                ((long)t.scores[i] * t.games[best] == (long)t.scores[best] * t.games[i] && t.games[i] > t.games[best]))
+                best = i;
+        return best < 0 ? null : decode(game, team, t.plans[best]);
+    }
+
+    private List<Action> decode(Game game, int team, long plan) {
+        List<Action> actions = new ArrayList<Action>();
+        int count = (int)(plan & 15);
+        for (int i = 0; i < count; ++i) {
+            int bits = (int)(plan >>> (4 + 10 * i)) & 1023;
+            List<Pawn> pawns = getCanonicalPawns(game, team);
+            if ((bits >>> 5) >= pawns.size())
+                return null;
+            Action action = new Action(pawns.get(bits >>> 5), Stance.fromInt((bits >>> 3) & 3), Move.fromInt(bits & 7));
+            actions.add(action);
+            game = game.updated(action);
+        }
+        return actions;
+    }
+
+    private void record(long key, long plan, int score) {
+        Line line = new Line(key, plan);
+        Line previous = pending.get(line);
+        if (previous == null)
+            pending.put(line, previous = line);
+        previous.games++;
+        previous.score += score;
+    }
+
+    /**
+     * Record first turns of given finished simulation.
+     * Turns are delimited using action costs, hence a skipped turn merges two turns of the same team (such plans are
+     * usually too long to be recorded).
+     */
+    public void record(Simulator simulator) {
+        if (!simulator.getRules().equals(rules))
+            return;
+        int winner = simulator.getGame().getWinner();
+        Game game = simulator.getInitialGame();
+        int team = -1, points = 0, turns = 0, count = 0;
+        long key = 0, plan = 0;
+        List<Long> keys = new ArrayList<Long>(), plans = new ArrayList<Long>();
+        List<Integer> teams = new ArrayList<Integer>();
+        for (Action action : simulator.getHistory()) {
+            Pawn pawn = game.getPawn(action.getPawn());
+            if (pawn == null)
+                break;
+            int cost = getCost(pawn, action);
+            if (pawn.getTeam() != team || cost > points) {
+                if (team >= 0 && count <= MAX_ACTIONS) {
+                    keys.add(key);
+                    plans.add(plan | count);
+                    teams.add(team);
+                }
+                if (++turns > depth)
+                    break;
+                team = pawn.getTeam();
+                points = rules.getActions();
+                key = getKey(game, team);
+                plan = 0;
+                count = 0;
+            }
+            int index = getCanonicalPawns(game, team).indexOf(pawn);
+            if (index < 0 || index >= 32)
+                count = MAX_ACTIONS;
+            else if (count < MAX_ACTIONS) {
+                long bits = (index << 5) | (action.getStance().ordinal() << 3) | action.getMove().ordinal();
+                plan |= bits << (4 + 10 * count);
+            }
+            ++count;
+            points -= cost;
+            game = game.updated(action);
+        }
+        if (turns <= depth && team >= 0 && count <= MAX_ACTIONS) {
+            keys.add(key);
+            plans.add(plan | count);
+            teams.add(team);
+        }
+        synchronized (pending) {
+            for (int i = 0; i < keys.size(); ++i) {
+                int t = teams.get(i);
+                record(keys.get(i), plans.get(i), winner == t ? 2 : winner < 0 ? 1 : 0);
+            }
+        }
+    }
+
+    @Override
+    public void finished(Tournament.Match match, Simulator simulator) {
+        record(simulator);
+    }
+
+    /**
+     * Merge recorded games into stored entries, and write the book to its file.
+     */
+    public void save() throws IOException {
+        List<Line> lines = new ArrayList<Line>();
+        Table t = table;
+        Map<Line, Line> merged = new HashMap<Line, Line>();
+        for (int i = 0; i < t.keys.length; ++i) {
+            Line l = new Line(t.keys[i], t.plans[i]);
+            l.games = t.games[i];
+            l.score = t.scores[i];
+            merged.put(l, l);
+        }
+        // Pending lines are copied, and only removed once the book is written
+        List<Line> saved = new ArrayList<Line>();
+        synchronized (pending) {
+            for (Line p : pending.values()) {
+                Line l = new Line(p.key, p.plan);
+                l.games = p.games;
+                l.score = p.score;
+                saved.add(l);
+                Line m = merged.get(l);
+                if (m == null)
+                    merged.put(l, l);
+                else {
+                    m.games += l.games;
+                    m.score += l.score;
+                }
+            }
+        }
+        lines.addAll(merged.values());
+        Collections.sort(lines);
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(rules.getPawns());
+            out.writeInt(rules.getActions());
+            out.writeInt(rules.getHealth());
+            out.writeInt(rules.getMoveCost());
+            out.writeInt(rules.getStanceCost());
+            out.writeInt(rules.getStance().ordinal());
+            out.writeInt(lines.size());
+            for (Line l : lines) {
+                out.writeLong(l.key);
+                out.writeLong(l.plan);
+                out.writeInt(l.games);
+                out.writeInt(l.score);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        table = new Table(lines);
+        // Games recorded meanwhile are kept for the next save
+        synchronized (pending) {
+            for (Line l : saved) {
+                Line p = pending.get(l);
+                p.games -= l.games;
+                p.score -= l.score;
+                if (p.games == 0)
+                    pending.remove(l);
+            }
+        }
+    }
+
+}
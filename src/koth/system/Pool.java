@@ -0,0 +1,70 @@
+package koth.system;
+
+import koth.game.*;
+import koth.util.ClassManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Objects reused across matches by a single worker: instances of <code>Resettable</code> AIs, and boards of
+ * <code>Deterministic</code> generators (boards are immutable, and shared by all pools).
+ * A pool is not thread-safe.
+ */
+final class Pool {
+
+    private static final ConcurrentMap<Class<?>, Map<Integer, Board>> boards = new ConcurrentHashMap<Class<?>, Map<Integer, Board>>();
+
+    private final Map<ClassManager.Factory<AI>, Deque<AI>> idle;
+
+    public Pool() {
+        idle = new HashMap<ClassManager.Factory<AI>, Deque<AI>>();
+    }
+
+    /**
+     * Get instances of given AIs, reusing released ones if possible (a lineup gets distinct instances).
+     */
+    public List<AI> acquire(List<ClassManager.Factory<AI>> factories) {
+        List<AI> ais = new ArrayList<AI>(factories.size());
+        for (ClassManager.Factory<AI> f : factories) {
+            Deque<AI> d = idle.get(f);
+            AI ai = d == null ? null : d.poll();
+            ais.add(ai == null ? f.create() : ai);
+        }
+        return ais;
+    }
+
+    /**
+     * Give back an AI created by given factory, once its game is over (it is kept only if it is
+     * <code>Resettable</code>).
+     */
+    public void release(ClassManager.Factory<AI> factory, AI ai) {
+        if (!(ai instanceof Resettable))
+            return;
+        Deque<AI> d = idle.get(factory);
+        if (d == null)
+            idle.put(factory, d = new ArrayDeque<AI>());
+        d.push(ai);
+    }
+
+    /**
+     * Get a board created by given generator, which is cached if the generator is <code>Deterministic</code>.
+     */
+    public Board getBoard(ClassManager.Factory<Generator> generator, int teams) {
+        if (!Deterministic.class.isAssignableFrom(generator.getClazz()))
+            return generator.create().create(teams);
+        Map<Integer, Board> cache = boards.get(generator.getClazz());
+        if (cache == null) {
+            boards.putIfAbsent(generator.getClazz(), new ConcurrentHashMap<Integer, Board>());
+            cache = boards.get(generator.getClazz());
+        }
+        Board board = cache.get(teams);
+        if (board == null) {
+            cache.putIfAbsent(teams, generator.create().create(teams));
+            board = cache.get(teams);
+        }
+        return board;
+    }
+
+}
@@ -5,6 +5,8 @@ import koth.game.*;
 import koth.util.ClassManager;
 
 import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
 // TODO documentation of Program
@@ -12,8 +14,11 @@ import java.util.Map;
 public class Program {
 
     public static void main(String[] args) {
-        // Parse arguments
-        // TODO parse args (size, external jars, simulation parameters...)
+        // Arguments select the headless batch mode
+        if (args.length > 0) {
+            int status = Batch.run(args);
+            System.exit(status);
+        }
 
         // Setup system
         try {
@@ -38,8 +43,21 @@ public class Program {
             Display display = new Display(simulator);
             display.run();
         } else {
-            Tournament.Descriptor descriptor = new Tournament.Descriptor(ais.values(), generators.get("jlb.Cross"), new Rules(), 2);
-            Tournament tournament = new Tournament(descriptor);
+            Rules rules = new Rules();
+            Tournament.Descriptor descriptor = new Tournament.Descriptor(ais.values(), generators.get("jlb.Cross"), rules, 2);
+            OpeningBook book = null;
+            try {
+                book = OpeningBook.open(new File("koth.book"), rules);
+            } catch (IOException e) {
+                System.err.println("Failed to open opening book: " + e.getMessage());
+            }
+            Journal journal = null;
+            try {
+                journal = Journal.open(new File("koth.journal"), descriptor);
+            } catch (IOException e) {
+                System.err.println("Failed to open journal: " + e.getMessage());
+            }
+            Tournament tournament = new Tournament(descriptor, book, journal);
             tournament.run();
         }
     }
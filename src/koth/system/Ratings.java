@@ -0,0 +1,220 @@
+package koth.system;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Glicko-2 ratings of tournament AIs.
+ * Results are queued without locking (workers only append pairwise outcomes), and applied in batches: each batch is a
+ * Glicko-2 rating period, hence ratings use pre-batch values of opponents. Unlike time-based periods, the deviation of
+ * AIs that did not play in a batch is left unchanged.
+ * Multi-team matches are split into pairs: the winner beats every other team, and other pairs are draws.
+ */
+public final class Ratings implements Tournament.Executor.Listener, Cluster.Listener {
+
+    private static final double SCALE = 173.7178, BASE = 1500;
+    private static final double TAU = 0.5, EPSILON = 1e-6;
+
+    private final Tournament.Descriptor descriptor;
+    private final Map<Class<?>, Integer> indices;
+    private final int batch;
+    private final Queue<int[]> queue;
+    private final AtomicInteger queued;
+    private final double[] mu, phi, sigma;
+    private final int[] games;
+
+    /**
+     * Create initial ratings (1500, with a deviation of 350), updated every <code>batch</code> pairwise results.
+     */
+    public Ratings(Tournament.Descriptor descriptor, int batch) {
+        if (descriptor == null)
+            throw new NullPointerException();
+        if (batch <= 0)
+            throw new IllegalArgumentException();
+        this.descriptor = descriptor;
+        this.batch = batch;
+        int n = descriptor.getAis().size();
+        indices = new HashMap<Class<?>, Integer>();
+        for (int i = 0; i < n; ++i)
+            indices.put(descriptor.getAis().get(i).getClazz(), i);
+        queue = new ConcurrentLinkedQueue<int[]>();
+        queued = new AtomicInteger();
+        mu = new double[n];
+        phi = new double[n];
+        sigma = new double[n];
+        games = new int[n];
+        Arrays.fill(phi, 350 / SCALE);
+        Arrays.fill(sigma, 0.06);
+    }
+
+    /**
+     * Create initial ratings, updated every 64 pairwise results.
+     */
+    public Ratings(Tournament.Descriptor descriptor) {
+        this(descriptor, 64);
+    }
+
+    public Tournament.Descriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Queue result of given match (ratings are updated once a batch is complete).
+     */
+    public void add(Tournament.Match match, int winner) {
+        int n = match.getAis().size();
+        int[] is = new int[n];
+        for (int a = 0; a < n; ++a)
+            is[a] = indices.get(match.getAis().get(a).getClazz());
+        int count = 0;
+        for (int a = 0; a < n; ++a)
+            for (int b = a + 1; b < n; ++b)
+                if (is[a] != is[b]) {
+                    // Score of first AI, in half points
+                    queue.add(new int[] {is[a], is[b], winner == a ? 2 : winner == b ? 0 : 1});
+                    ++count;
+                }
+        if (queued.addAndGet(count) >= batch)
+            flush();
+    }
+
+    @Override
+    public void finished(Tournament.Match match, Simulator simulator) {
+        add(match, simulator.getGame().getWinner());
+    }
+
+    @Override
+    public void finished(Tournament.Match match, int winner, int turns, boolean adjudicated) {
+        add(match, winner);
+    }
+
+    private static double g(double phi) {
+        return 1 / Math.sqrt(1 + 3 * phi * phi / (Math.PI * Math.PI));
+    }
+
+    private static double expected(double mu, double muj, double phij) {
+        return 1 / (1 + Math.exp(-g(phij) * (mu - muj)));
+    }
+
+    private static double volatility(double phi, double sigma, double v, double delta) {
+        // Illinois algorithm, as in the Glicko-2 paper
+        double a = Math.log(sigma * sigma), phi2 = phi * phi, delta2 = delta * delta;
+        double A = a, B;
+        if (delta2 > phi2 + v)
+            B = Math.log(delta2 - phi2 - v);
+        else {
+            int k = 1;
+            while (f(a - k * TAU, phi2, v, delta2, a) < 0)
+                ++k;
+            B = a - k * TAU;
+        }
+        double fA = f(A, phi2, v, delta2, a), fB = f(B, phi2, v, delta2, a);
+        while (Math.abs(B - A) > EPSILON) {
+            double C = A + (A - B) * fA / (fB - fA), fC = f(C, phi2, v, delta2, a);
+            if (fC * fB <= 0) {
+                A = B;
+                fA = fB;
+            } else
+                fA /= 2;
+            B = C;
+            fB = fC;
+        }
+        return Math.exp(A / 2);
+    }
+
+    private static double f(double x, double phi2, double v, double delta2, double a) {
+        double ex = Math.exp(x), d = phi2 + v + ex;
+        return ex * (delta2 - phi2 - v - ex) / (2 * d * d) - (x - a) / (TAU * TAU);
+    }
+
+    /**
+     * Apply all queued results, as a single rating period.
+     */
+    public synchronized void flush() {
+        int n = mu.length;
+        List<List<int[]>> results = new ArrayList<List<int[]>>();
+        for (int i = 0; i < n; ++i)
+            results.add(new ArrayList<int[]>());
+        int count = 0;
+        for (int[] r; (r = queue.poll()) != null; ++count) {
+            results.get(r[0]).add(r);
+            results.get(r[1]).add(r);
+        }
+        queued.addAndGet(-count);
+        if (count == 0)
+            return;
+        double[] nmu = mu.clone(), nphi = phi.clone(), nsigma = sigma.clone();
+        for (int i = 0; i < n; ++i) {
+            List<int[]> rs = results.get(i);
+            if (rs.isEmpty())
+                continue;
+            double vi = 0, di = 0;
+            for (int[] r : rs) {
+                int j = r[0] == i ? r[1] : r[0];
+                double s = (r[0] == i ? r[2] : 2 - r[2]) / 2.0;
+                double gj = g(phi[j]), e = expected(mu[i], mu[j], phi[j]);
+                vi += gj * gj * e * (1 - e);
+                di += gj * (s - e);
+            }
+            double v = 1 / vi;
+            double sigma1 = volatility(phi[i], sigma[i], v, v * di);
+            double phiStar = Math.sqrt(phi[i] * phi[i] + sigma1 * sigma1);
+            nphi[i] = 1 / Math.sqrt(1 / (phiStar * phiStar) + 1 / v);
+            nmu[i] = mu[i] + nphi[i] * nphi[i] * di;
+            nsigma[i] = sigma1;
+            games[i] += rs.size();
+        }
+        System.arraycopy(nmu, 0, mu, 0, n);
+        System.arraycopy(nphi, 0, phi, 0, n);
+        System.arraycopy(nsigma, 0, sigma, 0, n);
+    }
+
+    /**
+     * Get rating of specified AI (on the Elo-like scale, 1500 by default).
+     */
+    public synchronized double getRating(int i) {
+        return BASE + SCALE * mu[i];
+    }
+
+    /**
+     * Get rating deviation of specified AI.
+     */
+    public synchronized double getDeviation(int i) {
+        return SCALE * phi[i];
+    }
+
+    /**
+     * Get rating volatility of specified AI.
+     */
+    public synchronized double getVolatility(int i) {
+        return sigma[i];
+    }
+
+    /**
+     * Get how many pairwise results were applied to specified AI.
+     */
+    public synchronized int getGames(int i) {
+        return games[i];
+    }
+
+    /**
+     * Get AI indices, from best to worst (by rating minus twice the deviation, hence uncertain AIs are ranked lower).
+     */
+    public synchronized List<Integer> getRanking() {
+        List<Integer> ranking = new ArrayList<Integer>();
+        final double[] conservative = new double[mu.length];
+        for (int i = 0; i < mu.length; ++i) {
+            ranking.add(i);
+            conservative[i] = mu[i] - 2 * phi[i];
+        }
+        Collections.sort(ranking, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(conservative[b], conservative[a]);
+            }
+        });
+        return ranking;
+    }
+
+}
@@ -0,0 +1,431 @@
+package koth.system;
+
+import koth.game.*;
+import koth.util.Vector;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Binary replay format.
+ * A replay starts with a header (rules, board and initial pawns), followed by a stream of records: packed actions (see
+ * <code>History</code>), round starts, keyframes (all pawns, written periodically and whenever pawns change outside of
+ * actions) and an end marker. A <code>Writer</code> is hooked into a <code>Simulator</code> and streams records as the
+ * game is played, and a <code>Reader</code> maps a replay in memory and rebuilds any state from its nearest keyframe.
+ */
+public final class Replay {
+
+    private static final int MAGIC = 0x4b525031;
+    private static final byte ACTION = 1, ROUND = 2, KEYFRAME = 3, END = 4;
+
+    private Replay() {}
+
+    private static long encode(Pawn pawn) {
+        return History.encode(new Action(pawn, pawn.getStance(), Move.None));
+    }
+
+    private static Pawn decode(long bits) {
+        return History.decode(bits).getPawn();
+    }
+
+    /**
+     * Stream records of a simulation to an output stream.
+     * I/O errors do not interrupt the simulation: the writer stops writing, and the error is available with
+     * <code>getError</code>.
+     */
+    public static final class Writer {
+
+        private final DataOutputStream out;
+        private final int interval;
+        private int actions;
+        private IOException error;
+        private boolean closed;
+
+        /**
+         * Write header of given simulation, and attach this writer to it.
+         * A keyframe is written every <code>interval</code> rounds.
+         */
+        public Writer(OutputStream out, Simulator simulator, int interval) {
+            if (out == null || simulator == null)
+                throw new NullPointerException();
+            if (interval <= 0)
+                throw new IllegalArgumentException();
+            if (simulator.getHistory().size() > 0)
+                throw new IllegalStateException("Replay must be attached before the first action");
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.interval = interval;
+            Rules rules = simulator.getRules();
+            Board board = simulator.getGame().getBoard();
+            try {
+                this.out.writeInt(MAGIC);
+                this.out.writeInt(rules.getPawns());
+                this.out.writeInt(rules.getActions());
+                this.out.writeInt(rules.getHealth());
+                this.out.writeInt(rules.getMoveCost());
+                this.out.writeInt(rules.getStanceCost());
+                this.out.writeInt(rules.getStance().ordinal());
+                this.out.writeInt(simulator.getAis().size());
+                writeLocations(board.getTiles());
+                this.out.writeInt(board.getSpawns().size());
+                for (Set<Vector> spawns : board.getSpawns())
+                    writeLocations(spawns);
+                writePawns(simulator.getInitialGame().getPawns());
+            } catch (IOException e) {
+                error = e;
+            }
+            keyframe(simulator);
+            simulator.setReplay(this);
+        }
+
+        /**
+         * Write header of given simulation, and attach this writer to it (with a keyframe every 16 rounds).
+         */
+        public Writer(OutputStream out, Simulator simulator) {
+            this(out, simulator, 16);
+        }
+
+        private void writeLocations(Set<Vector> locations) throws IOException {
+            out.writeInt(locations.size());
+            for (Vector v : locations) {
+                out.writeInt(v.getX());
+                out.writeInt(v.getY());
+            }
+        }
+
+        private void writePawns(Set<Pawn> pawns) throws IOException {
+            out.writeInt(pawns.size());
+            for (Pawn p : pawns)
+                out.writeLong(encode(p));
+        }
+
+        /**
+         * Get the first I/O error, or <code>null</code>.
+         */
+        public IOException getError() {
+            return error;
+        }
+
+        /**
+         * Record an action.
+         */
+        public void action(Action action) {
+            if (error != null || closed)
+                return;
+            try {
+                out.writeByte(ACTION);
+                out.writeLong(History.encode(action));
+                ++actions;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        /**
+         * Record the beginning of a round (and a keyframe, if needed).
+         */
+        public void round(Simulator simulator) {
+            if (error != null || closed)
+                return;
+            try {
+                out.writeByte(ROUND);
+                out.writeInt(simulator.getTurn());
+            } catch (IOException e) {
+                error = e;
+            }
+            if (simulator.getTurn() % interval == 0)
+                keyframe(simulator);
+        }
+
+        /**
+         * Record the current state.
+         */
+        public void keyframe(Simulator simulator) {
+            if (error != null || closed)
+                return;
+            try {
+                out.writeByte(KEYFRAME);
+                out.writeInt(simulator.getTurn());
+                out.writeInt(actions);
+                writePawns(simulator.getGame().getPawns());
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        /**
+         * Record the final state, and close the stream.
+         */
+        public void end(Simulator simulator) {
+            keyframe(simulator);
+            if (error == null && !closed) {
+                try {
+                    out.writeByte(END);
+                    out.writeInt(simulator.getGame().getWinner());
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            close();
+        }
+
+        /**
+         * Close the stream (the replay is incomplete if the game is not finished).
+         */
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (error == null)
+                    error = e;
+            }
+        }
+
+    }
+
+    /**
+     * Memory-mapped replay, with random access to actions and states.
+     */
+    public static final class Reader implements Closeable {
+
+        private final RandomAccessFile file;
+        private final ByteBuffer buffer;
+        private final Rules rules;
+        private final int teams;
+        private final Board board;
+        private final Game initial;
+        private int[] actions, rounds, keyframes, keyframeActions;
+        private int actionCount, roundCount, keyframeCount;
+        private int winner;
+        private boolean complete;
+
+        /**
+         * Open and index given replay (an incomplete replay is readable up to its last record).
+         * @throws java.io.IOException if the file is not a replay
+         */
+        public Reader(File path) throws IOException {
+            file = new RandomAccessFile(path, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer = map;
+                if (buffer.remaining() < 4 || buffer.getInt() != MAGIC)
+                    throw new IOException(path + " is not a replay");
+                rules = new Rules(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), Stance.fromInt(buffer.getInt()));
+                teams = buffer.getInt();
+                Set<Vector> tiles = readLocations();
+                int n = buffer.getInt();
+                List<Set<Vector>> spawns = new ArrayList<Set<Vector>>();
+                for (int i = 0; i < n; ++i)
+                    spawns.add(readLocations());
+                board = new Board(tiles, spawns);
+                initial = new Game(board, readPawns(buffer.position()));
+                index();
+            } catch (RuntimeException e) {
+                file.close();
+                throw new IOException(path + " is corrupted", e);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        private Set<Vector> readLocations() {
+            int n = buffer.getInt();
+            Set<Vector> locations = new HashSet<Vector>();
+            for (int i = 0; i < n; ++i)
+                locations.add(new Vector(buffer.getInt(), buffer.getInt()));
+            return locations;
+        }
+
+        private Set<Pawn> readPawns(int position) {
+            int n = buffer.getInt(position);
+            Set<Pawn> pawns = new HashSet<Pawn>();
+            for (int i = 0; i < n; ++i)
+                pawns.add(decode(buffer.getLong(position + 4 + 8 * i)));
+            buffer.position(position + 4 + 8 * n);
+            return pawns;
+        }
+
+        private static int[] grow(int[] array, int size) {
+            return size < array.length ? array : Arrays.copyOf(array, Math.max(16, array.length * 2));
+        }
+
+        private void index() {
+            actions = new int[0];
+            rounds = new int[0];
+            keyframes = new int[0];
+            keyframeActions = new int[0];
+            winner = -1;
+            // Records are scanned until the end marker, or the first truncated record
+            while (buffer.remaining() > 0 && !complete) {
+                int position = buffer.position();
+                byte tag = buffer.get();
+                if (tag == ACTION && buffer.remaining() >= 8) {
+                    actions = grow(actions, actionCount);
+                    actions[actionCount++] = buffer.position();
+                    buffer.position(buffer.position() + 8);
+                } else if (tag == ROUND && buffer.remaining() >= 4) {
+                    buffer.getInt();
+                    rounds = grow(rounds, roundCount);
+                    rounds[roundCount++] = actionCount;
+                } else if (tag == KEYFRAME && buffer.remaining() >= 12) {
+                    buffer.getInt();
+                    int index = buffer.getInt();
+                    int n = buffer.getInt();
+                    if (buffer.remaining() < 8L * n)
+                        break;
+                    buffer.position(buffer.position() + 8 * n);
+                    keyframes = grow(keyframes, keyframeCount);
+                    keyframeActions = grow(keyframeActions, keyframeCount);
+                    keyframes[keyframeCount] = position + 9;
+                    keyframeActions[keyframeCount++] = index;
+                } else if (tag == END && buffer.remaining() >= 4) {
+                    winner = buffer.getInt();
+                    complete = true;
+                } else
+                    break;
+            }
+            // The first round is implicit
+            int[] r = new int[roundCount + 1];
+            System.arraycopy(rounds, 0, r, 1, roundCount);
+            rounds = r;
+            ++roundCount;
+        }
+
+        public Rules getRules() {
+            return rules;
+        }
+
+        public Board getBoard() {
+            return board;
+        }
+
+        /**
+         * Get how many teams played.
+         */
+        public int getTeams() {
+            return teams;
+        }
+
+        /**
+         * Get the original game state.
+         */
+        public Game getInitialGame() {
+            return initial;
+        }
+
+        /**
+         * Get how many actions were recorded.
+         */
+        public int getActionCount() {
+            return actionCount;
+        }
+
+        /**
+         * Get how many rounds were started.
+         */
+        public int getRoundCount() {
+            return roundCount;
+        }
+
+        /**
+         * Get whether the replay reaches the end of the game.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Get winner (or -1 if there is none, or if the replay is incomplete).
+         */
+        public int getWinner() {
+            return winner;
+        }
+
+        /**
+         * Get specified action.
+         */
+        public Action getAction(int index) {
+            if (index < 0 || index >= actionCount)
+                throw new IndexOutOfBoundsException();
+            return History.decode(buffer.getLong(actions[index]));
+        }
+
+        /**
+         * Get a read-only view of actions.
+         */
+        public List<Action> getActions() {
+            return new AbstractList<Action>() {
+
+                @Override
+                public Action get(int index) {
+                    return getAction(index);
+                }
+
+                @Override
+                public int size() {
+                    return actionCount;
+                }
+
+            };
+        }
+
+        /**
+         * Get state after specified number of actions, starting from the nearest keyframe.
+         */
+        public synchronized Game getGame(int actionIndex) {
+            if (actionIndex < 0 || actionIndex > actionCount)
+                throw new IndexOutOfBoundsException();
+            // Last keyframe at or before requested index (keyframes are sorted by action index)
+            int lo = 0, hi = keyframeCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keyframeActions[mid] <= actionIndex)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            Game game;
+            int i;
+            if (lo == 0) {
+                game = initial;
+                i = 0;
+            } else {
+                game = new Game(board, readPawns(keyframes[lo - 1]));
+                i = keyframeActions[lo - 1];
+            }
+            for (; i < actionIndex; ++i)
+                game = game.updated(getAction(i));
+            return game;
+        }
+
+        /**
+         * Get state at the beginning of specified round.
+         */
+        public Game seek(int round) {
+            if (round < 0 || round >= roundCount)
+                throw new IndexOutOfBoundsException();
+            return getGame(rounds[round]);
+        }
+
+        /**
+         * Get state at the end of the replay.
+         */
+        public Game getFinalGame() {
+            return getGame(actionCount);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+
+    }
+
+}
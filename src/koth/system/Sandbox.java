@@ -0,0 +1,205 @@
+package koth.system;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Run AI calls on a managed thread, with a deadline for each call.
+ * A call that exceeds its deadline is interrupted and its thread is abandoned (it is tracked until it dies, but never
+ * reused), so a stuck AI cannot freeze the caller. A sandbox runs one call at a time, and is meant to be owned by a
+ * single worker; <code>copy()</code> creates a new sandbox with the same settings.
+ * Calls run on a platform daemon thread, or on a virtual thread if the sandbox was created by <code>virtual()</code>.
+ */
+public final class Sandbox {
+
+    /**
+     * Thrown when a call exceeds its deadline.
+     */
+    public static final class TimeoutException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Thread thread;
+
+        public TimeoutException(long timeout, Thread thread) {
+            super("Call exceeded " + timeout + " ms");
+            this.thread = thread;
+        }
+
+        /**
+         * Get the abandoned thread, which is still running the call (or <code>null</code> if unknown).
+         * The call has returned once this thread is dead.
+         */
+        public Thread getThread() {
+            return thread;
+        }
+
+    }
+
+    private static final List<Thread> abandoned = new ArrayList<Thread>();
+
+    private final long initializeTimeout, playTimeout;
+    private final int maxOverruns;
+    private final boolean virtual;
+    private ExecutorService executor;
+    private Thread thread;
+
+    /**
+     * Create a sandbox with specified deadlines (in milliseconds, 0 for none).
+     * A team is forfeited after <code>maxOverruns</code> exceeded deadlines (0 to never forfeit).
+     */
+    public Sandbox(long initializeTimeout, long playTimeout, int maxOverruns) {
+        this(initializeTimeout, playTimeout, maxOverruns, false);
+    }
+
+    private Sandbox(long initializeTimeout, long playTimeout, int maxOverruns, boolean virtual) {
+        if (initializeTimeout < 0 || playTimeout < 0 || maxOverruns < 0)
+            throw new IllegalArgumentException();
+        this.initializeTimeout = initializeTimeout;
+        this.playTimeout = playTimeout;
+        this.maxOverruns = maxOverruns;
+        this.virtual = virtual;
+    }
+
+    /**
+     * Create a new sandbox with the same settings.
+     */
+    public Sandbox copy() {
+        return new Sandbox(initializeTimeout, playTimeout, maxOverruns, virtual);
+    }
+
+    /**
+     * Create a new sandbox with the same settings, whose calls run on virtual threads (or on platform threads if the
+     * runtime has no virtual threads), so that many sandboxes can wait at the same time.
+     */
+    public Sandbox virtual() {
+        return new Sandbox(initializeTimeout, playTimeout, maxOverruns, true);
+    }
+
+    /**
+     * Get whether calls run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Get deadline of <code>AI.initialize</code>, in milliseconds.
+     */
+    public long getInitializeTimeout() {
+        return initializeTimeout;
+    }
+
+    /**
+     * Get deadline of <code>AI.play</code>, in milliseconds.
+     */
+    public long getPlayTimeout() {
+        return playTimeout;
+    }
+
+    /**
+     * Get how many exceeded deadlines cause a forfeit (0 for never).
+     */
+    public int getMaxOverruns() {
+        return maxOverruns;
+    }
+
+    /**
+     * Get threads abandoned by all sandboxes, which are still running.
+     */
+    public static List<Thread> getAbandonedThreads() {
+        synchronized (abandoned) {
+            prune();
+            return new ArrayList<Thread>(abandoned);
+        }
+    }
+
+    /**
+     * Forget abandoned threads which are dead (the caller must hold the lock of the list).
+     */
+    private static void prune() {
+        for (Iterator<Thread> it = abandoned.iterator(); it.hasNext();)
+            if (!it.next().isAlive())
+                it.remove();
+    }
+
+    private static ThreadFactory createVirtualFactory() {
+        // Virtual threads are resolved at runtime, to keep compatibility with older Java versions
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class).invoke(builder, "Sandbox");
+            return (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final ThreadFactory factory = virtual ? createVirtualFactory() : null;
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t;
+                    if (factory != null)
+                        t = factory.newThread(r);
+                    else {
+                        t = new Thread(r, "Sandbox");
+                        t.setDaemon(true);
+                    }
+                    thread = t;
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private synchronized Thread recycle() {
+        if (executor == null)
+            return null;
+        executor.shutdownNow();
+        Thread t = thread;
+        if (t != null && t.isAlive())
+            synchronized (abandoned) {
+                prune();
+                abandoned.add(t);
+            }
+        executor = null;
+        thread = null;
+        return t;
+    }
+
+    /**
+     * Run given call, and wait at most <code>timeout</code> milliseconds (0 to wait indefinitely).
+     * @throws TimeoutException if the deadline is exceeded (the thread running the call is then abandoned, and the
+     * caller must not call the same object again until it is dead)
+     * @throws ExecutionException if the call failed
+     */
+    public <T> T call(Callable<T> callable, long timeout) throws TimeoutException, ExecutionException, InterruptedException {
+        Future<T> future = getExecutor().submit(callable);
+        try {
+            return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (java.util.concurrent.TimeoutException e) {
+            future.cancel(true);
+            throw new TimeoutException(timeout, recycle());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            recycle();
+            throw e;
+        }
+    }
+
+    /**
+     * Stop the managed thread.
+     */
+    public synchronized void close() {
+        if (executor != null)
+            executor.shutdown();
+        executor = null;
+        thread = null;
+    }
+
+}
@@ -0,0 +1,288 @@
+package koth.system;
+
+import koth.game.AI;
+import koth.game.Generator;
+import koth.util.ClassManager;
+
+import java.util.*;
+
+/**
+ * Choose which matches an executor plays.
+ * Implementations are called concurrently by workers, and must be thread-safe.
+ */
+public interface Scheduler {
+
+    /**
+     * Get next match to play, or <code>null</code> if the schedule is exhausted.
+     */
+    public Tournament.Match next();
+
+    /**
+     * A scheduler implementing this interface is told by the executor when each match it produced is done (after its
+     * result was published to listeners, or once it was skipped by a filter or discarded on stop).
+     */
+    public static interface Feedback {
+
+        public void done(Tournament.Match match);
+
+    }
+
+    /**
+     * Base class of schedulers that play lists of lineups, round after round.
+     * Matches are paired by round (see <code>Tournament.Pairing</code>), and rotations of a lineup are played
+     * consecutively, hence mirrored matches complete together. If lineups depend on results, a round is created once
+     * every match of the previous round is done (workers wait for it).
+     */
+    public static abstract class Rounds implements Scheduler, Feedback {
+
+        protected final Tournament.Descriptor descriptor;
+        private final long rounds;
+        private List<int[]> lineups;
+        private long round, sequence;
+        private int index, done;
+
+        /**
+         * @param rounds how many rounds are played (0 for no limit)
+         */
+        protected Rounds(Tournament.Descriptor descriptor, long rounds) {
+            if (descriptor == null)
+                throw new NullPointerException();
+            if (rounds < 0)
+                throw new IllegalArgumentException();
+            this.descriptor = descriptor;
+            this.rounds = rounds;
+        }
+
+        /**
+         * Create lineups of given round, as AI indices followed by a generator index.
+         */
+        protected abstract List<int[]> create(long round);
+
+        /**
+         * Get whether lineups of a round depend on results of previous rounds.
+         */
+        protected boolean isAdaptive() {
+            return false;
+        }
+
+        @Override
+        public synchronized Tournament.Match next() {
+            while (lineups == null || index >= lineups.size()) {
+                if (lineups != null) {
+                    // Another worker may have created the next round in the meantime
+                    if (isAdaptive() && done < lineups.size()) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return null;
+                        }
+                        continue;
+                    }
+                    ++round;
+                }
+                if (rounds > 0 && round >= rounds)
+                    return null;
+                lineups = create(round);
+                index = 0;
+                done = 0;
+                if (lineups.isEmpty())
+                    return null;
+            }
+            int[] lineup = lineups.get(index);
+            List<ClassManager.Factory<AI>> ais = new ArrayList<ClassManager.Factory<AI>>();
+            for (int i = 0; i < lineup.length - 1; ++i)
+                ais.add(descriptor.getAis().get(lineup[i]));
+            ClassManager.Factory<Generator> generator = descriptor.getGenerators().get(lineup[lineup.length - 1]);
+            return new Tournament.Match(descriptor, sequence++, index++, round, Collections.unmodifiableList(ais), generator);
+        }
+
+        @Override
+        public synchronized void done(Tournament.Match match) {
+            if (match.getRound() == round && ++done >= lineups.size())
+                notifyAll();
+        }
+
+        /**
+         * Append all rotations of given lineup (so that each AI plays each side), for each generator.
+         */
+        protected void rotations(List<int[]> lineups, int[] ais) {
+            int teams = ais.length;
+            for (int g = 0; g < descriptor.getGenerators().size(); ++g)
+                for (int r = 0; r < teams; ++r) {
+                    int[] lineup = new int[teams + 1];
+                    for (int t = 0; t < teams; ++t)
+                        lineup[t] = ais[(t + r) % teams];
+                    lineup[teams] = g;
+                    lineups.add(lineup);
+                }
+        }
+
+    }
+
+    /**
+     * Round-robin over unordered sets of distinct AIs (pairs, for two teams), where each set is played with all rotations
+     * of sides and with every generator. This avoids self-play and duplicate permutations of the Cartesian product.
+     */
+    public static final class RoundRobin extends Rounds {
+
+        private final List<int[]> combinations;
+
+        public RoundRobin(Tournament.Descriptor descriptor, long rounds) {
+            super(descriptor, rounds);
+            int n = descriptor.getAis().size(), teams = descriptor.getTeams();
+            if (n < teams)
+                throw new IllegalArgumentException("Not enough AIs for " + teams + " teams (" + n + " available)");
+            combinations = new ArrayList<int[]>();
+            int[] c = new int[teams];
+            for (int i = 0; i < teams; ++i)
+                c[i] = i;
+            for (;;) {
+                combinations.add(c.clone());
+                int i = teams - 1;
+                while (i >= 0 && c[i] == n - teams + i)
+                    --i;
+                if (i < 0)
+                    break;
+                ++c[i];
+                for (int j = i + 1; j < teams; ++j)
+                    c[j] = c[j - 1] + 1;
+            }
+        }
+
+        @Override
+        protected List<int[]> create(long round) {
+            List<int[]> lineups = new ArrayList<int[]>();
+            for (int[] c : combinations)
+                rotations(lineups, c);
+            return lineups;
+        }
+
+    }
+
+    /**
+     * Swiss-style scheduler, which groups AIs of similar current rating (AIs ranked consecutively play together).
+     * Among close candidates, opponents met less often are preferred. Results must be added to given ratings (for
+     * instance by attaching them to the executor), and each group is played with all rotations of sides. A round is
+     * paired once all results of the previous round are known.
+     */
+    public static final class Swiss extends Rounds {
+
+        private static final int CANDIDATES = 3;
+
+        private final Ratings ratings;
+        private final int[][] met;
+
+        public Swiss(Tournament.Descriptor descriptor, Ratings ratings, long rounds) {
+            super(descriptor, rounds);
+            if (ratings == null)
+                throw new NullPointerException();
+            if (descriptor.getAis().size() < descriptor.getTeams())
+                throw new IllegalArgumentException("Not enough AIs for " + descriptor.getTeams() + " teams");
+            this.ratings = ratings;
+            int n = descriptor.getAis().size();
+            met = new int[n][n];
+        }
+
+        @Override
+        protected boolean isAdaptive() {
+            return true;
+        }
+
+        @Override
+        protected List<int[]> create(long round) {
+            ratings.flush();
+            int teams = descriptor.getTeams();
+            List<Integer> left = new ArrayList<Integer>();
+            for (int i : ratings.getRanking())
+                left.add(i);
+            List<int[]> lineups = new ArrayList<int[]>();
+            // Remaining AIs (less than a full group) get a bye
+            while (left.size() >= teams) {
+                int[] group = new int[teams];
+                group[0] = left.remove(0);
+                for (int t = 1; t < teams; ++t) {
+                    int best = 0;
+                    for (int k = 1; k < Math.min(CANDIDATES, left.size()); ++k)
+                        if (cost(group, t, left.get(k)) < cost(group, t, left.get(best)))
+                            best = k;
+                    group[t] = left.remove(best);
+                }
+                for (int a = 0; a < teams; ++a)
+                    for (int b = 0; b < teams; ++b)
+                        if (a != b)
+                            met[group[a]][group[b]]++;
+                rotations(lineups, group);
+            }
+            return lineups;
+        }
+
+        private int cost(int[] group, int size, int candidate) {
+            int c = 0;
+            for (int i = 0; i < size; ++i)
+                c += met[group[i]][candidate];
+            return c;
+        }
+
+    }
+
+    /**
+     * Random lineups of distinct AIs (if there are enough), in random order, with a random generator.
+     * This is intended for many teams, where the number of lineups is too large to be enumerated.
+     * If the descriptor pairs matches, each lineup is played with all rotations of sides (consecutively), with the same
+     * seed.
+     */
+    public static final class Sampled implements Scheduler {
+
+        private final Tournament.Descriptor descriptor;
+        private final long count;
+        private final Random random;
+        private final Deque<Tournament.Match> pending;
+        private long sequence, draws;
+
+        /**
+         * @param count how many matches are played (0 for no limit)
+         */
+        public Sampled(Tournament.Descriptor descriptor, long count, long seed) {
+            if (descriptor == null)
+                throw new NullPointerException();
+            if (count < 0)
+                throw new IllegalArgumentException();
+            this.descriptor = descriptor;
+            this.count = count;
+            random = new Random(seed);
+            pending = new ArrayDeque<Tournament.Match>();
+        }
+
+        @Override
+        public synchronized Tournament.Match next() {
+            if (!pending.isEmpty())
+                return pending.poll();
+            if (count > 0 && sequence >= count)
+                return null;
+            List<ClassManager.Factory<AI>> all = descriptor.getAis();
+            List<ClassManager.Factory<AI>> ais = new ArrayList<ClassManager.Factory<AI>>();
+            if (all.size() >= descriptor.getTeams()) {
+                List<ClassManager.Factory<AI>> pool = new ArrayList<ClassManager.Factory<AI>>(all);
+                for (int t = 0; t < descriptor.getTeams(); ++t)
+                    ais.add(pool.remove(random.nextInt(pool.size())));
+            } else
+                for (int t = 0; t < descriptor.getTeams(); ++t)
+                    ais.add(all.get(random.nextInt(all.size())));
+            ClassManager.Factory<Generator> generator = descriptor.getGenerators().get(random.nextInt(descriptor.getGenerators().size()));
+            long draw = draws++;
+            int rotations = descriptor.getPairing() == Tournament.Pairing.NONE ? 1 : ais.size();
+            for (int r = 0; r < rotations && (count == 0 || sequence < count); ++r) {
+                List<ClassManager.Factory<AI>> lineup = new ArrayList<ClassManager.Factory<AI>>();
+                for (int t = 0; t < ais.size(); ++t)
+                    lineup.add(ais.get((t + r) % ais.size()));
+                long s = sequence++;
+                long seed = descriptor.getSeed(s, draw, lineup, generator);
+                pending.add(new Tournament.Match(descriptor, s, (int)Math.min(s, Integer.MAX_VALUE), 0, Collections.unmodifiableList(lineup), generator, seed));
+            }
+            return pending.poll();
+        }
+
+    }
+
+}
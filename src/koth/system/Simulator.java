@@ -6,6 +6,7 @@ import koth.util.Vector;
 import koth.util.ClassManager;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Encapsulate a game and AIs used to simulate a play.
@@ -15,19 +16,63 @@ public final class Simulator {
     private Rules rules;
     private List<AI> ais;
     private Game initial, game;
-    private List<Action> history;
+    private History history;
     private int currentTeam, currentPoints;
-    private int lastHealthSum, staleCount;
+    private int staleCount;
+    private final Tracker tracker = new Tracker();
+    private final Map<Long, Integer> positions = new HashMap<Long, Integer>();
+    private long positionHash, damages, lastDamages, positionDamages;
+    private boolean stalled;
+    private Adjudicator adjudicator;
+    private int leader, leaderRounds;
+    private boolean adjudicated;
     private int turn;
+    private Sandbox sandbox;
+    private int[] overruns;
+    private Thread[] pending;
+    private Usage[] usages;
+    private Replay.Writer replay;
+    private long seed;
+    private long[] seeds;
+    private Board spawnBoard;
+    private List<List<Vector>> spawnCandidates;
 
     /**
      * Create a new simulator with specified board, AIs and rules.
+     * If a sandbox is provided, AI calls are run with its deadlines; otherwise, they are run directly by the caller.
+     * After an exceeded deadline, an AI is not called again until its abandoned call returned (waiting for it counts
+     * against the deadline of the next call, and a call which cannot start in time is an overrun).
+     * Spawns are selected using an independent stream derived from given seed, and each <code>Seeded</code> AI gets
+     * its own stream, hence a game is reproducible as long as its AIs are deterministic given their seed.
      */
-    public Simulator(Board board, List<AI> ais, Rules rules) {
+    public Simulator(Board board, List<AI> ais, Rules rules, Sandbox sandbox, long seed) {
+        this.rules = rules;
+        this.sandbox = sandbox;
+        history = new History();
+        reset(board, ais, seed);
+    }
+
+    /**
+     * Start a new game with specified board, AIs and seed, using the same rules and sandbox.
+     * Buffers of the previous game are reused: its history is cleared, and its replay writer is detached. AIs which are
+     * <code>Resettable</code> are reset before being initialized, hence they can be reused from previous games.
+     */
+    public void reset(Board board, List<AI> ais, long seed) {
         if (board == null || ais == null)
             throw new NullPointerException();
-        this.rules = rules;
-        List<List<Vector>> spawns = selectSpawns(board, ais.size(), rules);
+        this.seed = seed;
+        replay = null;
+        SplittableRandom streams = new SplittableRandom(seed);
+        SplittableRandom spawnRandom = streams.split();
+        seeds = new long[ais.size()];
+        for (int i = 0; i < seeds.length; ++i)
+            seeds[i] = streams.split().nextLong();
+        overruns = new int[ais.size()];
+        pending = new Thread[ais.size()];
+        usages = new Usage[ais.size()];
+        for (int i = 0; i < usages.length; ++i)
+            usages[i] = new Usage();
+        List<List<Vector>> spawns = selectSpawns(board, ais.size(), rules, spawnRandom);
         this.ais = Collections.unmodifiableList(new ArrayList<AI>(ais));
         Set<Pawn> pawns = new HashSet<Pawn>();
         for (int i = 0; i < this.ais.size(); ++i) {
@@ -35,22 +80,39 @@ public final class Simulator {
                 pawns.add(new Pawn(i, j, spawns.get(i).get(j), rules.getStance(), rules.getHealth()));
         }
         game = initial = new Game(board, pawns);
-        history = new LinkedList<Action>();
+        history.clear();
+        history.startRound();
         currentTeam = 0;
         currentPoints = rules.getActions();
-        lastHealthSum = computeHealthSum(game);
         staleCount = 0;
+        damages = lastDamages = positionDamages = 0;
+        positionHash = game.getHash();
+        positions.clear();
+        stalled = false;
+        leader = -1;
+        leaderRounds = 0;
+        adjudicated = false;
         turn = 0;
-        for (int i = 0; i < this.ais.size(); ++i) {
-            AI ai = this.ais.get(i);
-            try {
-                // TODO sandbox that in another thread (with a timeout)
-                ai.initialize(game, i, rules);
-            } catch (Exception e) {
-                //System.err.println(i + " (" + ai + ") failed to initiate!");
-                //e.printStackTrace();
-            }
-        }
+        for (int i = 0; i < this.ais.size(); ++i)
+            initialize(i);
+        while (game.getPawnCount(currentTeam) == 0 && !game.isFinished())
+            ++currentTeam;
+        if (!game.isFinished())
+            repeated();
+    }
+
+    /**
+     * Create a new simulator with specified board, AIs, rules and a random seed.
+     */
+    public Simulator(Board board, List<AI> ais, Rules rules, Sandbox sandbox) {
+        this(board, ais, rules, sandbox, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Create a new simulator with specified board, AIs and rules.
+     */
+    public Simulator(Board board, List<AI> ais, Rules rules) {
+        this(board, ais, rules, null);
     }
 
     /**
@@ -60,20 +122,150 @@ public final class Simulator {
         this(generator.create(ais.size()), ais, rules);
     }
 
+    /**
+     * Create a new simulator with specified board, AIs, rules and seed.
+     */
+    public Simulator(ClassManager.Factory<Generator> generator, List<ClassManager.Factory<AI>> ais, Rules rules, Sandbox sandbox, long seed) {
+        this(generator.create().create(ais.size()), ClassManager.create(ais), rules, sandbox, seed);
+    }
+
+    /**
+     * Create a new simulator with specified board, AIs and rules.
+     */
+    public Simulator(ClassManager.Factory<Generator> generator, List<ClassManager.Factory<AI>> ais, Rules rules, Sandbox sandbox) {
+        this(generator.create().create(ais.size()), ClassManager.create(ais), rules, sandbox);
+    }
+
     /**
      * Create a new simulator with specified board, AIs and rules.
      */
     public Simulator(ClassManager.Factory<Generator> generator, List<ClassManager.Factory<AI>> ais, Rules rules) {
-        this(generator.create(), ClassManager.create(ais), rules);
+        this(generator, ais, rules, null);
+    }
+
+    private void initialize(final int team) {
+        final AI ai = ais.get(team);
+        final Game game = this.game;
+        final Usage usage = usages[team];
+        final long seed = seeds[team];
+        // Resources are measured by the thread that runs the call
+        Callable<Void> call = new Callable<Void>() {
+            @Override
+            public Void call() {
+                Usage.Meter meter = usage.start();
+                try {
+                    if (ai instanceof Resettable)
+                        ((Resettable)ai).reset();
+                    if (ai instanceof Seeded)
+                        ((Seeded)ai).setSeed(seed);
+                    ai.initialize(game, team, rules);
+                } finally {
+                    meter.stop();
+                }
+                return null;
+            }
+        };
+        try {
+            if (sandbox == null)
+                call.call();
+            else
+                sandbox.call(call, sandbox.getInitializeTimeout());
+        } catch (Sandbox.TimeoutException e) {
+            pending[team] = e.getThread();
+            overrun(team);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            //System.err.println(team + " (" + ai + ") failed to initiate!");
+            //e.printStackTrace();
+        }
+    }
+
+    private Action request(final int team) {
+        final AI ai = ais.get(team);
+        final Game game = this.game;
+        final int points = currentPoints;
+        final Usage usage = usages[team];
+        Callable<Action> call = new Callable<Action>() {
+            @Override
+            public Action call() {
+                Usage.Meter meter = usage.start();
+                try {
+                    return ai.play(game, points);
+                } finally {
+                    meter.stop();
+                }
+            }
+        };
+        try {
+            if (sandbox == null)
+                return call.call();
+            long timeout = settle(team, sandbox.getPlayTimeout());
+            if (timeout < 0) {
+                overrun(team);
+                return null;
+            }
+            return sandbox.call(call, timeout);
+        } catch (Sandbox.TimeoutException e) {
+            pending[team] = e.getThread();
+            overrun(team);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            //e.printStackTrace();
+            //System.err.println(team + " (" + ai + ") failed to play!");
+        }
+        return null;
+    }
+
+    /**
+     * Wait at most <code>timeout</code> milliseconds (0 for no limit) for the abandoned call of specified team to
+     * return, since AIs are not thread-safe. Return the time left for the next call, or -1 if none is left.
+     */
+    private long settle(int team, long timeout) throws InterruptedException {
+        Thread thread = pending[team];
+        if (thread == null)
+            return timeout;
+        long start = System.nanoTime();
+        thread.join(timeout);
+        if (thread.isAlive())
+            return -1;
+        pending[team] = null;
+        if (timeout == 0)
+            return 0;
+        long left = timeout - (System.nanoTime() - start) / 1000000;
+        return left > 0 ? left : -1;
     }
 
-    private List<List<Vector>> selectSpawns(Board board, int teams, Rules rules) {
+    private void overrun(int team) {
+        // Too many overruns forfeit the team, by removing all its pawns
+        if (++overruns[team] == sandbox.getMaxOverruns()) {
+            Set<Pawn> pawns = new HashSet<Pawn>(game.getPawns());
+            pawns.removeAll(game.getPawns(team));
+            game = new Game(game.getBoard(), pawns);
+            positionHash = game.getHash();
+            ++damages;
+            if (replay != null)
+                replay.keyframe(this);
+            //System.err.println(team + " (" + ais.get(team) + ") forfeited after " + overruns[team] + " overruns!");
+        }
+    }
+
+    private List<List<Vector>> selectSpawns(Board board, int teams, Rules rules, SplittableRandom random) {
+        // Candidates are kept while the board is reused, in the same order (shuffles depend on it)
+        if (board != spawnBoard || spawnCandidates.size() < teams) {
+            spawnCandidates = new ArrayList<List<Vector>>();
+            for (int t = 0; t < teams; ++t)
+                spawnCandidates.add(new ArrayList<Vector>(board.getSpawns(t)));
+            spawnBoard = board;
+        }
         List<List<Vector>> spawns = new ArrayList<List<Vector>>();
         for (int t = 0; t < teams; ++t) {
-            List<Vector> s = new ArrayList<Vector>(board.getSpawns(t));
+            List<Vector> s = new ArrayList<Vector>(spawnCandidates.get(t));
             for (int i = 0; i < t; ++i)
                 s.removeAll(spawns.get(i));
-            Collections.shuffle(s);
+            for (int i = s.size() - 1; i > 0; --i)
+                Collections.swap(s, i, random.nextInt(i + 1));
             if (s.size() < rules.getPawns())
                 throw new IllegalArgumentException("Not enough spawns for team " + t + " (" + spawns.size() + " available, " + rules.getPawns() + " required)");
             spawns.add(s.subList(0, rules.getPawns()));
@@ -81,6 +273,49 @@ public final class Simulator {
         return spawns;
     }
 
+    /**
+     * Get the seed of this game.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Get associated sandbox, or <code>null</code> if AIs are called directly.
+     */
+    public Sandbox getSandbox() {
+        return sandbox;
+    }
+
+    /**
+     * Get how many times specified team exceeded a deadline.
+     */
+    public int getOverruns(int team) {
+        return overruns[team];
+    }
+
+    /**
+     * Get resources used by specified team's AI calls.
+     * Calls abandoned after a timeout are added when (and if) they complete.
+     */
+    public Usage getUsage(int team) {
+        return usages[team];
+    }
+
+    /**
+     * Get attached replay writer, or <code>null</code>.
+     */
+    public Replay.Writer getReplay() {
+        return replay;
+    }
+
+    /**
+     * Attach a replay writer, which records every further event (see <code>Replay.Writer</code>).
+     */
+    void setReplay(Replay.Writer replay) {
+        this.replay = replay;
+    }
+
     /**
      * Get associated rules.
      */
@@ -103,10 +338,17 @@ public final class Simulator {
     }
 
     /**
-     * Get the chronological list of actions.
+     * Get the chronological list of actions (a read-only view, decoded on access).
      */
     public List<Action> getHistory() {
-        return new ArrayList<Action>(history);
+        return history.asList();
+    }
+
+    /**
+     * Get the packed log of actions, with round offsets.
+     */
+    public History getLog() {
+        return history;
     }
 
     /**
@@ -144,11 +386,66 @@ public final class Simulator {
         return currentPoints;
     }
 
-    private int computeHealthSum(Game game) {
-        int s = 0;
-        for (Pawn p : game.getPawns())
-            s += p.getHealth();
-        return s;
+    /**
+     * Get whether the game was stopped because nothing happened for too long, or a position was repeated (it is a
+     * draw, unless it was adjudicated, see <code>Rules</code>).
+     */
+    public boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * Get adjudicator consulted after each round, or <code>null</code>.
+     */
+    public Adjudicator getAdjudicator() {
+        return adjudicator;
+    }
+
+    /**
+     * Set adjudicator consulted after each round (<code>null</code> to play games until they are finished). It is kept
+     * by further games, and rounds already played by the current game are not taken into account.
+     */
+    public void setAdjudicator(Adjudicator adjudicator) {
+        this.adjudicator = adjudicator;
+        leader = -1;
+        leaderRounds = 0;
+    }
+
+    /**
+     * Get whether the game was ended by the adjudicator.
+     */
+    public boolean isAdjudicated() {
+        return adjudicated;
+    }
+
+    /**
+     * Forward game events to the caller's listener, while counting damages and updating the position hash.
+     */
+    private final class Tracker implements Game.Listener {
+
+        private Game.Listener delegate;
+
+        @Override
+        public void updated(Pawn before, Pawn after) {
+            if (after.getHealth() < before.getHealth())
+                ++damages;
+            positionHash += (after.isAlive() ? Game.getHash(after) : 0) - Game.getHash(before);
+            if (delegate != null)
+                delegate.updated(before, after);
+        }
+
+        @Override
+        public void frame() {
+            if (delegate != null)
+                delegate.frame();
+        }
+
+        @Override
+        public void done(Game before, Game after) {
+            if (delegate != null)
+                delegate.done(before, after);
+        }
+
     }
 
     /**
@@ -159,17 +456,16 @@ public final class Simulator {
         // If simulation is finished, do nothing
         if (game.isFinished())
             return;
-        // Ask AI for an action
-        AI ai = ais.get(currentTeam);
-        Action action;
-        try {
-            // TODO sandbox that in another thread (with a timeout)
-            action = ai.play(game, currentPoints);
-        } catch (Exception e) {
-            //e.printStackTrace();
-            //System.err.println(currentTeam + " (" + ai + ") failed to play!");
-            action = null;
-        }
+        step(listener);
+        if (replay != null && game.isFinished())
+            replay.end(this);
+    }
+
+    private void step(Game.Listener listener) {
+        // Ask AI for an action (an overrun is considered as a null action)
+        Action action = request(currentTeam);
+        if (game.isFinished())
+            return;
         // Apply action (if enough points)
         if (action != null) {
             Pawn pawn = game.getPawn(action.getPawn());
@@ -199,9 +495,12 @@ public final class Simulator {
                 } else {
                     // Execute movement
                     //System.out.println(action);
-                    game = game.updated(action, listener);
+                    tracker.delegate = listener;
+                    game = game.updated(action, tracker);
                     currentPoints -= cost;
                     history.add(action);
+                    if (replay != null)
+                        replay.action(action);
                     // Check for end
                     if (game.isFinished()) {
                         //System.out.println("Game finished (" + game.getWinner() + " wins)");
@@ -213,24 +512,75 @@ public final class Simulator {
         // Decrease action points and switch team if points are exhausted (or an invalid action was issued)
         if (currentPoints <= 0 || action == null) {
             currentPoints = rules.getActions();
+            boolean round = false;
             do {
                 ++currentTeam;
                 if (currentTeam == ais.size()) {
                     currentTeam = 0;
+                    round = true;
                     ++turn;
+                    history.startRound();
+                    if (replay != null)
+                        replay.round(this);
                     // Check for idle game (to avoid infinite loop)
-                    int sum = computeHealthSum(game);
-                    if (sum != lastHealthSum)
+                    if (damages != lastDamages)
                         staleCount = 0;
-                    else if (++staleCount >= 100) { // TODO put this constant somewhere
-                        game = new Game(game.getBoard(), new HashSet<Pawn>());
-                        //System.out.println("Force draw, nothing happened for too long!");
+                    else if (++staleCount >= rules.getStaleLimit()) {
+                        stall();
                         return;
                     }
-                    lastHealthSum = sum;
+                    lastDamages = damages;
                 }
             } while (game.getPawnCount(currentTeam) == 0);
+            if (repeated())
+                stall();
+            else if (round && adjudicator != null)
+                adjudicate();
+        }
+    }
+
+    /**
+     * Ask the adjudicator for a leader, and declare it winner if it led for enough consecutive rounds.
+     */
+    private void adjudicate() {
+        int team = adjudicator.getLeader(game, ais.size(), currentTeam, rules);
+        leaderRounds = team >= 0 && team == leader ? leaderRounds + 1 : team >= 0 ? 1 : 0;
+        leader = team;
+        if (leaderRounds >= adjudicator.getRounds()) {
+            game = new Game(game.getBoard(), new HashSet<Pawn>(game.getPawns(leader)));
+            adjudicated = true;
+        }
+    }
+
+    /**
+     * Count current position (with the team to play), and check whether it occurred too many times.
+     * Any damage is irreversible, hence positions seen before are forgotten.
+     */
+    private boolean repeated() {
+        if (rules.getRepetitions() == 0)
+            return false;
+        if (damages != positionDamages) {
+            positions.clear();
+            positionDamages = damages;
         }
+        Long key = positionHash ^ Game.mix(currentTeam + 1);
+        Integer count = positions.get(key);
+        count = count == null ? 1 : count + 1;
+        positions.put(key, count);
+        return count >= rules.getRepetitions();
+    }
+
+    /**
+     * End a stalled game, as a draw or in favor of the team leading by enough health (see <code>Rules</code>).
+     */
+    private void stall() {
+        int[] material = new int[ais.size()];
+        for (Pawn p : game.getPawns())
+            material[p.getTeam()] += p.getHealth();
+        int winner = rules.adjudicate(material);
+        game = new Game(game.getBoard(), winner < 0 ? new HashSet<Pawn>() : new HashSet<Pawn>(game.getPawns(winner)));
+        stalled = true;
+        //System.out.println("Force end, nothing happened for too long!");
     }
 
     /**
@@ -0,0 +1,265 @@
+package koth.system;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sequential stopping rule for head-to-head results.
+ * Results are tracked for each pair of AIs, and a pair is retired once it is statistically decided, either with a
+ * sequential probability ratio test (SPRT) or with a confidence interval on its average score. As a filter, it skips
+ * matches where all pairs are decided (including self-play), so that compute goes to close matchups; once all pairs are
+ * decided, the attached executor is stopped.
+ * Multi-team matches are split into pairs, the same way as in tournament results (a third-party win is a draw).
+ * Paired matches (see <code>Tournament.Pairing</code>) are correlated, hence the variance of scores is estimated with
+ * groups of mirrored matches as clusters: spawn luck which cancels out within a group does not count as noise.
+ */
+public final class Stopping implements Tournament.Executor.Listener, Tournament.Executor.Filter {
+
+    public static enum Mode {
+        SPRT, INTERVAL
+    }
+
+    private final Tournament.Descriptor descriptor;
+    private final Mode mode;
+    private final double delta, lower, upper, z, margin;
+    private final int minGames;
+    private final Map<Class<?>, Integer> indices;
+    private final int[][] wins, draws;
+    private final boolean[][] decided;
+    private final Clusters[][] clusters;
+    private int remaining;
+    private Tournament.Executor executor;
+
+    private Stopping(Tournament.Descriptor descriptor, Mode mode, double delta, double alpha, double beta, double z, double margin, int minGames) {
+        if (descriptor == null)
+            throw new NullPointerException();
+        this.descriptor = descriptor;
+        this.mode = mode;
+        this.delta = delta;
+        lower = Math.log(beta / (1 - alpha));
+        upper = Math.log((1 - beta) / alpha);
+        this.z = z;
+        this.margin = margin;
+        this.minGames = minGames;
+        int n = descriptor.getAis().size();
+        indices = new HashMap<Class<?>, Integer>();
+        for (int i = 0; i < n; ++i)
+            indices.put(descriptor.getAis().get(i).getClazz(), i);
+        wins = new int[n][n];
+        draws = new int[n][n];
+        decided = new boolean[n][n];
+        clusters = new Clusters[n][n];
+        for (int i = 0; i < n; ++i)
+            for (int j = i + 1; j < n; ++j)
+                clusters[i][j] = new Clusters();
+        remaining = n * (n - 1) / 2;
+    }
+
+    /**
+     * Create a SPRT rule, which decides whether the Elo difference of each pair is 0 or <code>delta</code> (in the
+     * direction of the current leader), with error rates <code>alpha</code> and <code>beta</code>.
+     */
+    public static Stopping sprt(Tournament.Descriptor descriptor, double delta, double alpha, double beta) {
+        if (delta <= 0 || alpha <= 0 || alpha >= 1 || beta <= 0 || beta >= 1)
+            throw new IllegalArgumentException();
+        return new Stopping(descriptor, Mode.SPRT, delta, alpha, beta, 0, 0, 16);
+    }
+
+    /**
+     * Create a confidence interval rule, which decides a pair once the interval of its average score (of half-width
+     * <code>z</code> standard errors) excludes 1/2, or is narrower than <code>margin</code>.
+     */
+    public static Stopping interval(Tournament.Descriptor descriptor, double z, double margin) {
+        if (z <= 0 || margin <= 0)
+            throw new IllegalArgumentException();
+        return new Stopping(descriptor, Mode.INTERVAL, 0, 0.5, 0.5, z, margin, 16);
+    }
+
+    public Tournament.Descriptor getDescriptor() {
+        return descriptor;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Use this rule as a filter of given executor, and stop it once all pairs are decided.
+     */
+    public synchronized void attach(Tournament.Executor executor) {
+        this.executor = executor;
+        executor.addFilter(this);
+        executor.addListener(this);
+        if (remaining == 0)
+            executor.stop();
+    }
+
+    /**
+     * Get expected score of a player, given its Elo advantage.
+     */
+    public static double getScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /**
+     * Scores of the first AI of a pair, summed by group of mirrored matches.
+     */
+    private static final class Clusters {
+
+        private final Map<Long, double[]> sums = new HashMap<Long, double[]>();
+        private double score, squares, products;
+        private long count, counts;
+
+        public void add(long pair, double s) {
+            double[] c = sums.get(pair);
+            if (c == null)
+                sums.put(pair, c = new double[2]);
+            // Maintain sums of S^2, S n and n^2 over clusters, from which the variance is derived in constant time
+            squares += 2 * c[0] * s + s * s;
+            products += c[0] + c[1] * s + s;
+            counts += 2 * (long)c[1] + 1;
+            c[0] += s;
+            c[1] += 1;
+            score += s;
+            ++count;
+        }
+
+        /**
+         * Get average score and variance of a single match (i.e. <code>n</code> times the variance of the average).
+         */
+        public double[] moments() {
+            double x = score / count;
+            double v = (squares - 2 * x * products + x * x * counts) / count;
+            // Identical results have no variance, which would decide any test at once
+            return new double[] {x, Math.max(v, 1e-4)};
+        }
+
+    }
+
+    private double[] moments(int i, int j) {
+        if (i < j)
+            return clusters[i][j].moments();
+        double[] m = clusters[j][i].moments();
+        m[0] = 1 - m[0];
+        return m;
+    }
+
+    /**
+     * Get log-likelihood ratio of specified pair (normal approximation of the trinomial model, as used by engine testing
+     * frameworks), or 0 if no game was played.
+     */
+    public synchronized double getLlr(int i, int j) {
+        int w = wins[i][j], l = wins[j][i], d = draws[i][j];
+        if (w + l + d == 0)
+            return 0;
+        double[] m = moments(i, j);
+        double s0 = 0.5, s1 = getScore(m[0] >= 0.5 ? delta : -delta);
+        return (w + l + d) * (s1 - s0) * (2 * m[0] - s0 - s1) / (2 * m[1]);
+    }
+
+    /**
+     * Get average score of <code>i</code> against <code>j</code>, or 1/2 if no game was played.
+     */
+    public synchronized double getScore(int i, int j) {
+        int n = wins[i][j] + wins[j][i] + draws[i][j];
+        return n == 0 ? 0.5 : (wins[i][j] + 0.5 * draws[i][j]) / n;
+    }
+
+    /**
+     * Get standard error of the average score of <code>i</code> against <code>j</code>, accounting for pairing, or 1/2
+     * if no game was played.
+     */
+    public synchronized double getError(int i, int j) {
+        int n = getGames(i, j);
+        return n == 0 ? 0.5 : Math.sqrt(moments(i, j)[1] / n);
+    }
+
+    /**
+     * Get how many games were played between <code>i</code> and <code>j</code>.
+     */
+    public synchronized int getGames(int i, int j) {
+        return wins[i][j] + wins[j][i] + draws[i][j];
+    }
+
+    /**
+     * Get whether specified pair is decided (self-play is always decided).
+     */
+    public synchronized boolean isDecided(int i, int j) {
+        return i == j || decided[i][j];
+    }
+
+    /**
+     * Get how many pairs are not decided yet.
+     */
+    public synchronized int getRemaining() {
+        return remaining;
+    }
+
+    private boolean test(int i, int j) {
+        int w = wins[i][j], l = wins[j][i], d = draws[i][j];
+        if (w + l + d < minGames)
+            return false;
+        if (mode == Mode.SPRT) {
+            double llr = getLlr(i, j);
+            return llr <= lower || llr >= upper;
+        }
+        double[] m = moments(i, j);
+        double half = z * Math.sqrt(m[1] / (w + l + d));
+        return Math.abs(m[0] - 0.5) > half || 2 * half < margin;
+    }
+
+    @Override
+    public synchronized boolean accept(Tournament.Match match) {
+        int n = match.getAis().size();
+        for (int a = 0; a < n; ++a)
+            for (int b = a + 1; b < n; ++b)
+                if (!isDecided(indices.get(match.getAis().get(a).getClazz()), indices.get(match.getAis().get(b).getClazz())))
+                    return true;
+        return false;
+    }
+
+    /**
+     * Add result of given match.
+     */
+    public void record(Tournament.Match match, int winner) {
+        Tournament.Executor stop = null;
+        synchronized (this) {
+            int n = match.getAis().size();
+            int[] is = new int[n];
+            for (int a = 0; a < n; ++a)
+                is[a] = indices.get(match.getAis().get(a).getClazz());
+            for (int a = 0; a < n; ++a)
+                for (int b = a + 1; b < n; ++b) {
+                    int i = is[a], j = is[b];
+                    if (i == j)
+                        continue;
+                    if (winner == a)
+                        wins[i][j]++;
+                    else if (winner == b)
+                        wins[j][i]++;
+                    else {
+                        draws[i][j]++;
+                        draws[j][i]++;
+                    }
+                    double s = winner == a ? 1 : winner == b ? 0 : 0.5;
+                    if (i < j)
+                        clusters[i][j].add(match.getPair(), s);
+                    else
+                        clusters[j][i].add(match.getPair(), 1 - s);
+                    if (!decided[i][j] && test(i, j)) {
+                        decided[i][j] = decided[j][i] = true;
+                        if (--remaining == 0)
+                            stop = executor;
+                    }
+                }
+        }
+        if (stop != null)
+            stop.stop();
+    }
+
+    @Override
+    public void finished(Tournament.Match match, Simulator simulator) {
+        record(match, simulator.getGame().getWinner());
+    }
+
+}
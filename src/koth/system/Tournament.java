@@ -2,29 +2,72 @@
 package koth.system;
 
 import koth.game.AI;
+import koth.game.Board;
+import koth.game.Game;
 import koth.game.Generator;
 import koth.game.Rules;
 import koth.user.Human;
 import koth.util.ClassManager;
 
 import javax.swing.*;
+import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 // TODO documentation of Tournament
 
 public class Tournament implements Runnable {
 
+    private static final long INITIALIZE_TIMEOUT = 10000, PLAY_TIMEOUT = 2000;
+    private static final int MAX_OVERRUNS = 3;
+
+    /**
+     * Define which matches share their seed (hence their board and spawns), so that results of paired matches can be
+     * compared with less noise from spawn luck.
+     */
+    public static enum Pairing {
+        /** Each match has its own seed. */
+        NONE,
+        /** Matches of the same AIs (in any order, i.e. with teams swapped) on the same generator and round share their seed. */
+        MIRRORED,
+        /** All matches on the same generator and round share their seed (common random numbers across matchups). */
+        COMMON
+    }
+
     public static class Descriptor implements Iterable<Simulator> {
 
         private List<ClassManager.Factory<AI>> ais;
         private List<ClassManager.Factory<Generator>> generators;
         private Rules rules;
         private int teams;
-
-        public Descriptor(Collection<ClassManager.Factory<AI>> ais, Collection<ClassManager.Factory<Generator>> generators, Rules rules, int teams) {
+        private long seed;
+        private Pairing pairing;
+        private List<Match> matches;
+
+        /**
+         * Create a tournament description, where match seeds are derived from given seed, and shared according to given
+         * pairing.
+         */
+        public Descriptor(Collection<ClassManager.Factory<AI>> ais, Collection<ClassManager.Factory<Generator>> generators, Rules rules, int teams, long seed, Pairing pairing) {
+            if (pairing == null)
+                throw new NullPointerException();
             if (ais == null || generators == null || rules == null)
                 throw new NullPointerException();
             if (ais.isEmpty() || generators.isEmpty() || teams < 2)
@@ -48,6 +91,16 @@ public class Tournament implements Runnable {
             // TODO check that teams, ais and generators are not too large
             this.rules = rules;
             this.teams = teams;
+            this.seed = seed;
+            this.pairing = pairing;
+        }
+
+        public Descriptor(Collection<ClassManager.Factory<AI>> ais, Collection<ClassManager.Factory<Generator>> generators, Rules rules, int teams, long seed) {
+            this(ais, generators, rules, teams, seed, Pairing.NONE);
+        }
+
+        public Descriptor(Collection<ClassManager.Factory<AI>> ais, Collection<ClassManager.Factory<Generator>> generators, Rules rules, int teams) {
+            this(ais, generators, rules, teams, 0);
         }
 
         public Descriptor(Collection<ClassManager.Factory<AI>> ais, ClassManager.Factory<Generator> generator, Rules rules, int teams) {
@@ -70,6 +123,48 @@ public class Tournament implements Runnable {
             return teams;
         }
 
+        public long getSeed() {
+            return seed;
+        }
+
+        public Pairing getPairing() {
+            return pairing;
+        }
+
+        /**
+         * Get seed of specified match (seeds of consecutive sequence numbers are uncorrelated).
+         */
+        public long getSeed(long sequence) {
+            return Game.mix(seed ^ Game.mix(sequence + 0x9e3779b97f4a7c15L));
+        }
+
+        /**
+         * Get seed of a match, according to pairing. Matches are paired only if they have the same group (such as their
+         * round), hence a group must not contain several matches of the same AIs, unless they are meant to be replayed.
+         */
+        public long getSeed(long sequence, long group, List<ClassManager.Factory<AI>> ais, ClassManager.Factory<Generator> generator) {
+            if (pairing == Pairing.NONE)
+                return getSeed(sequence);
+            long key = Game.mix(group ^ generator.getName().hashCode());
+            if (pairing == Pairing.MIRRORED)
+                key = Game.mix(key ^ getLineupKey(ais));
+            return getSeed(key);
+        }
+
+        /**
+         * Get a hash of given AIs, which does not depend on their order.
+         */
+        static long getLineupKey(List<ClassManager.Factory<AI>> ais) {
+            List<String> names = new ArrayList<String>();
+            for (ClassManager.Factory<AI> a : ais)
+                names.add(a.getName());
+            Collections.sort(names);
+            long h = names.size();
+            for (String n : names)
+                h = Game.mix(h ^ n.hashCode());
+            return h;
+        }
+
         public long getSize() {
             long r = 1;
             for (int i = 0; i < teams; ++i)
@@ -77,34 +172,63 @@ public class Tournament implements Runnable {
             return r * generators.size();
         }
 
+        /**
+         * Get a 64-bit hash of AIs, generators, rules and teams, which identifies this tournament across runs.
+         */
+        public long getFingerprint() {
+            long h = teams;
+            for (ClassManager.Factory<AI> a : ais)
+                h = Game.mix(h ^ a.getClazz().getName().hashCode());
+            for (ClassManager.Factory<Generator> g : generators)
+                h = Game.mix(h ^ g.getClazz().getName().hashCode());
+            h = Game.mix(h ^ rules.toString().hashCode());
+            h = Game.mix(h ^ pairing.ordinal());
+            return Game.mix(h ^ seed);
+        }
+
+        public synchronized List<Match> getMatches() {
+            if (matches == null) {
+                long size = getSize();
+                if (size > Integer.MAX_VALUE)
+                    throw new IllegalStateException("Too many matches (" + size + ")");
+                List<Match> lst = new ArrayList<Match>((int)size);
+                int[] a = new int[teams];
+                for (int g = 0; g < generators.size();) {
+                    List<ClassManager.Factory<AI>> lineup = new ArrayList<ClassManager.Factory<AI>>();
+                    for (int i : a)
+                        lineup.add(ais.get(i));
+                    lst.add(new Match(this, lst.size(), 0, Collections.unmodifiableList(lineup), generators.get(g)));
+                    for (int i = a.length - 1; i >= 0; --i)
+                        if (++a[i] == ais.size()) {
+                            a[i] = 0;
+                            if (i == 0)
+                                ++g;
+                        } else
+                            break;
+                }
+                matches = Collections.unmodifiableList(lst);
+            }
+            return matches;
+        }
+
+        public Match getMatch(long sequence) {
+            List<Match> lst = getMatches();
+            return lst.get((int)(sequence % lst.size())).inRound(sequence / lst.size());
+        }
+
         @Override
         public Iterator<Simulator> iterator() {
+            final Iterator<Match> it = getMatches().iterator();
             return new Iterator<Simulator>() {
 
-                private int[] a = new int[teams];
-                private int g;
-
                 @Override
                 public boolean hasNext() {
-                    return g < generators.size();
+                    return it.hasNext();
                 }
 
                 @Override
                 public Simulator next() {
-                    if (g == generators.size())
-                        throw new NoSuchElementException();
-                    List<ClassManager.Factory<AI>> lst = new ArrayList<ClassManager.Factory<AI>>();
-                    for (int i : a)
-                        lst.add(ais.get(i));
-                    ClassManager.Factory<Generator> gen = generators.get(g);
-                    for (int i = a.length - 1; i >= 0; --i)
-                        if (++a[i] == ais.size()) {
-                            a[i] = 0;
-                            if (i == 0)
-                                ++g;
-                        } else
-                            break;
-                    return new Simulator(gen, lst, rules);
+                    return it.next().create();
                 }
 
                 @Override
@@ -117,83 +241,508 @@ public class Tournament implements Runnable {
 
     }
 
+    public static final class Match {
+
+        private final Descriptor descriptor;
+        private final long sequence, round, seed;
+        private final int index;
+        private final List<ClassManager.Factory<AI>> ais;
+        private final ClassManager.Factory<Generator> generator;
+
+        /**
+         * Create a match, played as lineup <code>index</code> of given round of a schedule, with given seed.
+         */
+        Match(Descriptor descriptor, long sequence, int index, long round, List<ClassManager.Factory<AI>> ais, ClassManager.Factory<Generator> generator, long seed) {
+            this.descriptor = descriptor;
+            this.sequence = sequence;
+            this.index = index;
+            this.round = round;
+            this.ais = ais;
+            this.generator = generator;
+            this.seed = seed;
+        }
+
+        /**
+         * Create a match, played as lineup <code>index</code> of given round of a schedule (matches are paired by round).
+         */
+        Match(Descriptor descriptor, long sequence, int index, long round, List<ClassManager.Factory<AI>> ais, ClassManager.Factory<Generator> generator) {
+            this(descriptor, sequence, index, round, ais, generator, descriptor.getSeed(sequence, round, ais, generator));
+        }
+
+        private Match(Descriptor descriptor, int index, long round, List<ClassManager.Factory<AI>> ais, ClassManager.Factory<Generator> generator) {
+            this(descriptor, index, index, round, ais, generator);
+        }
+
+        public Descriptor getDescriptor() {
+            return descriptor;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getRound() {
+            return round;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public List<ClassManager.Factory<AI>> getAis() {
+            return ais;
+        }
+
+        public ClassManager.Factory<Generator> getGenerator() {
+            return generator;
+        }
+
+        private Match inRound(long round) {
+            if (round == this.round)
+                return this;
+            return new Match(descriptor, round * descriptor.getMatches().size() + index, index, round, ais, generator);
+        }
+
+        /**
+         * Get seed of this match, from which spawns and seeds of AIs are derived.
+         */
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * Get identifier of the group of mirrored matches of this match, i.e. matches with the same seed and AIs (in any
+         * order). Results of a group are correlated, which must be taken into account by statistics.
+         */
+        public long getPair() {
+            return Game.mix(seed ^ Descriptor.getLineupKey(ais));
+        }
+
+        public Simulator create(Sandbox sandbox) {
+            return new Simulator(generator, ais, descriptor.getRules(), sandbox, getSeed());
+        }
+
+        public Simulator create() {
+            return create(null);
+        }
+
+        @Override
+        public String toString() {
+            return "Match{" + "sequence=" + sequence + ", seed=" + getSeed() + ", ais=" + ais + ", generator=" + generator + "}";
+        }
+
+    }
+
     public static class Executor implements Runnable {
 
+        /**
+         * Notified of finished matches. The simulator is reused for further matches once <code>finished</code> returns,
+         * hence it must not be kept.
+         */
         public static interface Listener {
 
-            public void finished(Simulator simulator);
+            public void finished(Match match, Simulator simulator);
 
         }
 
-        private Descriptor descriptor;
-        private Listener listener;
-        private Iterator<Simulator> iterator;
-        private Thread[] threads;
-        private boolean running;
+        /**
+         * Decide which matches are played (a match is skipped as soon as one filter rejects it).
+         */
+        public static interface Filter {
 
-        public Executor(Descriptor descriptor, Listener listener) {
-            if (descriptor == null || listener == null)
+            public boolean accept(Match match);
+
+        }
+
+        /**
+         * How matches are mapped to threads.
+         * <code>PLATFORM</code> uses a fixed pool of workers, each playing matches in sequence, and suits CPU-bound AIs.
+         * <code>VIRTUAL</code> starts one virtual thread per match (or one platform thread if the runtime has no virtual
+         * threads), and suits AIs that mostly wait (remote bots, humans...). Its sandboxes also run AI calls on virtual
+         * threads.
+         */
+        public static enum Mode {
+            PLATFORM, VIRTUAL
+        }
+
+        private static final long POLL_MS = 100;
+
+        /**
+         * State reused by consecutive matches of a worker: a sandbox, pooled objects and the last simulator.
+         */
+        private static final class Context {
+
+            private final Sandbox sandbox;
+            private final Adjudicator adjudicator;
+            private final Pool pool;
+            private Simulator simulator;
+
+            public Context(Sandbox template, Adjudicator adjudicator) {
+                sandbox = template == null ? null : template.copy();
+                this.adjudicator = adjudicator;
+                pool = new Pool();
+            }
+
+            public Simulator create(Match match) {
+                List<AI> ais = pool.acquire(match.getAis());
+                Board board = pool.getBoard(match.getGenerator(), ais.size());
+                if (simulator == null) {
+                    simulator = new Simulator(board, ais, match.getDescriptor().getRules(), sandbox, match.getSeed());
+                    simulator.setAdjudicator(adjudicator);
+                } else
+                    simulator.reset(board, ais, match.getSeed());
+                return simulator;
+            }
+
+            public void release(Match match) {
+                // An AI which overran a deadline may still be running in an abandoned thread
+                for (int i = 0; i < simulator.getAis().size(); ++i)
+                    if (simulator.getOverruns(i) == 0)
+                        pool.release(match.getAis().get(i), simulator.getAis().get(i));
+            }
+
+            public void close() {
+                if (sandbox != null)
+                    sandbox.close();
+            }
+
+        }
+
+        private final Descriptor descriptor;
+        private final List<Listener> listeners;
+        private final List<Filter> filters;
+        private final Mode mode;
+        private final int threads;
+        private final AtomicLong cursor;
+        private volatile boolean running;
+        private Thread[] workers;
+        private ExecutorService service;
+        private volatile Sandbox sandbox;
+        private volatile Adjudicator adjudicator;
+        private volatile File archive;
+        private volatile long limit;
+        private volatile Scheduler scheduler;
+
+        /**
+         * Create an executor.
+         * In <code>PLATFORM</code> mode, <code>threads</code> is the number of workers.
+         * In <code>VIRTUAL</code> mode, it is the maximum number of matches played at the same time.
+         */
+        public Executor(Descriptor descriptor, Listener listener, Mode mode, int threads) {
+            if (descriptor == null || listener == null || mode == null)
                 throw new NullPointerException();
+            if (threads <= 0)
+                throw new IllegalArgumentException();
             this.descriptor = descriptor;
-            this.listener = listener;
+            this.mode = mode;
+            this.threads = threads;
+            listeners = new CopyOnWriteArrayList<Listener>();
+            listeners.add(listener);
+            filters = new CopyOnWriteArrayList<Filter>();
+            cursor = new AtomicLong();
+            limit = Long.MAX_VALUE;
+        }
+
+        public Executor(Descriptor descriptor, Listener listener, int threads) {
+            this(descriptor, listener, Mode.PLATFORM, threads);
+        }
+
+        public Executor(Descriptor descriptor, Listener listener) {
+            this(descriptor, listener, Runtime.getRuntime().availableProcessors());
         }
 
         public Descriptor getDescriptor() {
             return descriptor;
         }
 
-        private Simulator next() {
-            if (iterator == null || !iterator.hasNext())
-                iterator = descriptor.iterator();
-            return iterator.next();
+        public Mode getMode() {
+            return mode;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void addListener(Listener listener) {
+            if (listener == null)
+                throw new NullPointerException();
+            listeners.add(listener);
+        }
+
+        public void addFilter(Filter filter) {
+            if (filter == null)
+                throw new NullPointerException();
+            filters.add(filter);
+        }
+
+        /**
+         * Get sequence number of the next match to be played.
+         */
+        public long getCursor() {
+            return cursor.get();
+        }
+
+        /**
+         * Set sequence number of the next match to be played (e.g. to resume a tournament).
+         */
+        public void setCursor(long sequence) {
+            if (sequence < 0)
+                throw new IllegalArgumentException();
+            cursor.set(sequence);
+        }
+
+        public long getLimit() {
+            return limit;
+        }
+
+        /**
+         * Set sequence number at which workers stop (by default, the tournament runs until <code>stop</code> is called).
+         */
+        public void setLimit(long limit) {
+            if (limit < 0)
+                throw new IllegalArgumentException();
+            this.limit = limit;
+        }
+
+        public Scheduler getScheduler() {
+            return scheduler;
+        }
+
+        /**
+         * Set how matches are chosen (by default, the Cartesian product of the descriptor is walked by sequence number).
+         * Cursor and limit still count matches, but journals and worker JVMs rely on the default schedule.
+         */
+        public void setScheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
         }
 
-        private synchronized Simulator query() {
-            return running ? next() : null;
+        private Match next() {
+            long sequence = cursor.getAndIncrement();
+            if (sequence >= limit)
+                return null;
+            Scheduler s = scheduler;
+            return s == null ? descriptor.getMatch(sequence) : s.next();
         }
 
-        private synchronized void publish(Simulator simulator) {
-            listener.finished(simulator);
+        private boolean accept(Match match) {
+            for (Filter filter : filters)
+                if (!filter.accept(match))
+                    return false;
+            return true;
+        }
+
+        public Sandbox getSandbox() {
+            return sandbox;
+        }
+
+        /**
+         * Set sandbox settings used to call AIs (<code>null</code> to call them directly).
+         * Each worker uses its own copy of given sandbox.
+         */
+        public void setSandbox(Sandbox sandbox) {
+            this.sandbox = sandbox;
+        }
+
+        public Adjudicator getAdjudicator() {
+            return adjudicator;
+        }
+
+        /**
+         * Set adjudicator which ends decided games early (<code>null</code> to play games until they are finished).
+         */
+        public void setAdjudicator(Adjudicator adjudicator) {
+            this.adjudicator = adjudicator;
+        }
+
+        public File getArchive() {
+            return archive;
+        }
+
+        /**
+         * Set directory where replays of played matches are stored (<code>null</code> to disable).
+         * Each replay is named after the sequence number of its match.
+         */
+        public void setArchive(File archive) {
+            this.archive = archive;
+        }
+
+        private Replay.Writer record(Match match, Simulator simulator) {
+            File directory = archive;
+            if (directory == null)
+                return null;
+            File file = new File(directory, String.format("%08d.replay", match.getSequence()));
+            OutputStream out;
+            try {
+                out = new FileOutputStream(file);
+            } catch (IOException e) {
+                System.err.println("Failed to create replay " + file + ": " + e.getMessage());
+                return null;
+            }
+            // The stream is owned by the writer once it is created, and must be closed here otherwise
+            Replay.Writer writer;
+            try {
+                writer = new Replay.Writer(out, simulator);
+            } catch (RuntimeException e) {
+                try {
+                    out.close();
+                } catch (IOException f) {
+                    // Ignored, the original exception is more relevant
+                }
+                throw e;
+            }
+            if (writer.getError() != null) {
+                System.err.println("Failed to create replay " + file + ": " + writer.getError().getMessage());
+                writer.close();
+                simulator.setReplay(null);
+                return null;
+            }
+            return writer;
+        }
+
+        private void publish(Match match, Simulator simulator) {
+            // Listeners are called concurrently by workers, and must be thread-safe
+            for (Listener listener : listeners)
+                listener.finished(match, simulator);
+        }
+
+        private void play(Match match, Context context) {
+            try {
+                if (!accept(match))
+                    return;
+                Simulator sim = context.create(match);
+                Replay.Writer replay = record(match, sim);
+                try {
+                    while (running && sim.getGame().isPlaying())
+                        sim.play();
+                } finally {
+                    if (replay != null)
+                        replay.close();
+                }
+                // Unfinished matches are discarded on stop
+                if (sim.getGame().isFinished())
+                    publish(match, sim);
+                context.release(match);
+            } finally {
+                // Skipped and discarded matches are also reported, so that schedulers never wait for them
+                Scheduler s = scheduler;
+                if (s instanceof Scheduler.Feedback)
+                    ((Scheduler.Feedback)s).done(match);
+            }
         }
 
         private Runnable create() {
             return new Runnable() {
                 @Override
                 public void run() {
-                    for (Simulator sim; (sim = query()) != null;) {
-                        while (sim.getGame().isPlaying())
-                            sim.play();
-                        publish(sim);
+                    Context context = new Context(sandbox, adjudicator);
+                    try {
+                        for (Match match; running && (match = next()) != null;)
+                            play(match, context);
+                    } finally {
+                        context.close();
                     }
                 }
             };
         }
 
-        @Override
-        public void run() {
+        private static ExecutorService createVirtualService() {
+            // Virtual threads are resolved at runtime, to keep compatibility with older Java versions
+            try {
+                return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool();
+            }
+        }
+
+        private void runPlatform() {
             synchronized (this) {
-                if (threads != null)
-                    throw new IllegalStateException();
-                running = true;
-                int units = 0; // Runtime.getRuntime().availableProcessors() - 1;
-                threads = new Thread[units];
-                for (int i = 0; i < threads.length; ++i) {
-                    threads[i] = new Thread(create());
-                    threads[i].start();
+                workers = new Thread[threads - 1];
+                for (int i = 0; i < workers.length; ++i) {
+                    workers[i] = new Thread(create(), "Executor-" + (i + 1));
+                    workers[i].start();
                 }
             }
             create().run();
-            for (Thread t : threads) {
+            for (Thread t : workers) {
                 try {
                     t.join();
-                } catch (InterruptedException e) {}
+                } catch (InterruptedException e) {
+                    running = false;
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void runVirtual() {
+            final Semaphore permits = new Semaphore(threads);
+            // Contexts are reused by later matches, hence there are at most as many as matches in flight
+            final Queue<Context> contexts = new ConcurrentLinkedQueue<Context>();
+            synchronized (this) {
+                service = createVirtualService();
+            }
+            try {
+                while (running) {
+                    if (!permits.tryAcquire(POLL_MS, TimeUnit.MILLISECONDS))
+                        continue;
+                    final Match match = next();
+                    if (match == null) {
+                        permits.release();
+                        break;
+                    }
+                    service.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            Context context = contexts.poll();
+                            if (context == null)
+                                context = new Context(sandbox == null ? null : sandbox.virtual(), adjudicator);
+                            try {
+                                play(match, context);
+                            } finally {
+                                contexts.add(context);
+                                permits.release();
+                            }
+                        }
+                    });
+                }
+            } catch (InterruptedException e) {
+                running = false;
+                Thread.currentThread().interrupt();
             }
+            service.shutdown();
+            try {
+                while (!service.awaitTermination(POLL_MS, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                service.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            for (Context context; (context = contexts.poll()) != null;)
+                context.close();
+        }
+
+        @Override
+        public void run() {
             synchronized (this) {
-                threads = null;
+                if (running || workers != null || service != null)
+                    throw new IllegalStateException();
+                // Build the match queue ahead of time, outside of workers
+                descriptor.getMatches();
+                running = true;
+            }
+            try {
+                if (mode == Mode.VIRTUAL)
+                    runVirtual();
+                else
+                    runPlatform();
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    workers = null;
+                    service = null;
+                }
             }
         }
 
-        public synchronized void stop() {
+        public void stop() {
             running = false;
         }
 
@@ -202,9 +751,22 @@ public class Tournament implements Runnable {
     // TODO public and extract these 3 classes
     private static class Model extends AbstractTableModel implements Executor.Listener {
 
+        private static final int REFRESH_MS = 250;
+
         private final Descriptor descriptor;
         private Map<Class<?>, Integer> indices;
-        private int[][] wins, losses, draws;
+        // Written concurrently by workers; losses of i against j are wins of j, and draws are stored once (i < j)
+        private final LongAdder[][] wins, draws;
+        private transient Usage[] usages;
+        private final Ratings ratings;
+        private final AtomicBoolean dirty;
+        private final Timer timer;
+        // Snapshot of cells, only accessed by the Swing thread once the table is shown
+        private transient Object[][] cells;
+
+        private static final Usage.Metric[] metrics = Usage.Metric.values();
+        private static final String[] metricNames = {"Wall (ms)", "CPU (ms)", "Alloc (kB)"};
+        private static final double[] metricScales = {1e-6, 1e-6, 1.0 / 1024};
 
         public Model(Descriptor descriptor) {
             this.descriptor = descriptor;
@@ -212,9 +774,64 @@ public class Tournament implements Runnable {
             int N = descriptor.getAis().size();
             for (int i = 0; i < N; ++i)
                 indices.put(descriptor.getAis().get(i).getClazz(), i);
-            wins = new int[N][N];
-            losses = new int[N][N];
-            draws = new int[N][N];
+            wins = new LongAdder[N][N];
+            draws = new LongAdder[N][N];
+            for (int i = 0; i < N; ++i)
+                for (int j = 0; j < N; ++j) {
+                    wins[i][j] = new LongAdder();
+                    draws[i][j] = new LongAdder();
+                }
+            usages = new Usage[N];
+            for (int i = 0; i < N; ++i)
+                usages[i] = new Usage();
+            ratings = new Ratings(descriptor);
+            dirty = new AtomicBoolean();
+            // Results are merged at a fixed rate on the Swing thread, instead of firing an event per match
+            timer = new Timer(REFRESH_MS, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    if (dirty.getAndSet(false))
+                        refresh();
+                }
+            });
+            refresh();
+        }
+
+        public void start() {
+            timer.start();
+        }
+
+        public void stop() {
+            timer.stop();
+        }
+
+        private void refresh() {
+            int N = wins.length;
+            List<Integer> ranking = ratings.getRanking();
+            Object[][] cs = new Object[N][getColumnCount()];
+            for (int r = 0; r < N; ++r)
+                cs[ranking.get(r)][1] = r + 1;
+            for (int i = 0; i < N; ++i) {
+                cs[i][0] = descriptor.getAis().get(i).getName();
+                cs[i][2] = String.format("%.0f \u00b1 %.0f", ratings.getRating(i), 2 * ratings.getDeviation(i));
+                // TODO use percent instead? show others infos?
+                long tw = 0, tl = 0, td = 0;
+                for (int j = 0; j < N; ++j) {
+                    long w = wins[i][j].sum(), l = wins[j][i].sum(), d = draws[Math.min(i, j)][Math.max(i, j)].sum();
+                    cs[i][4 + metrics.length + j] = w + " / " + l + " / " + d;
+                    tw += w;
+                    tl += l;
+                    td += d;
+                }
+                cs[i][3] = tw + " / " + tl + " / " + td;
+                // Resources are shown as average and 99th percentile per call
+                for (int m = 0; m < metrics.length; ++m) {
+                    double scale = metricScales[m];
+                    cs[i][4 + m] = String.format("%.2f / %.2f", usages[i].getMean(metrics[m]) * scale, usages[i].getPercentile(metrics[m], 0.99) * scale);
+                }
+            }
+            cells = cs;
+            fireTableRowsUpdated(0, N - 1);
         }
 
         @Override
@@ -224,63 +841,57 @@ public class Tournament implements Runnable {
 
         @Override
         public int getColumnCount() {
-            return wins.length + 2;
+            return wins.length + 4 + metrics.length;
         }
 
         @Override
         public Object getValueAt(int rowIndex, int columnIndex) {
-            if (columnIndex == 0)
-                return descriptor.getAis().get(rowIndex).getName();
-            // TODO use percent instead? show rank? show others infos?
-            if (columnIndex == 1) {
-                int w = 0, l = 0, d = 0;
-                for (int i = 0; i < wins.length; ++i) {
-                    w += wins[rowIndex][i];
-                    l += losses[rowIndex][i];
-                    d += draws[rowIndex][i];
-                }
-                return w + " / " + l + " / " + d;
-            }
-            return wins[rowIndex][columnIndex - 2] + " / " +
-                losses[rowIndex][columnIndex - 2] + " / " +
-                draws[rowIndex][columnIndex - 2];
+            return cells[rowIndex][columnIndex];
         }
 
         @Override
         public String getColumnName(int column) {
             if (column == 0)
                 return "AI";
+            if (column == 1)
+                return "Rank";
+            if (column == 2)
+                return "Rating";
+            column -= 2;
             if (column == 1)
                 return "Total";
-            return descriptor.getAis().get(column - 2).getName();
+            if (column < 2 + metrics.length)
+                return metricNames[column - 2];
+            return descriptor.getAis().get(column - 2 - metrics.length).getName();
         }
 
         @Override
         public Class<?> getColumnClass(int columnIndex) {
-            return String.class;
+            return columnIndex == 1 ? Integer.class : String.class;
         }
 
         @Override
-        public void finished(Simulator simulator) {
-            int w = simulator.getGame().getWinner();
-            int[] is = new int[simulator.getAis().size()];
+        public void finished(Match match, Simulator simulator) {
+            for (int i = 0; i < match.getAis().size(); ++i)
+                usages[indices.get(match.getAis().get(i).getClazz())].add(simulator.getUsage(i));
+            record(match, simulator.getGame().getWinner());
+        }
+
+        public void record(Match match, int w) {
+            int[] is = new int[match.getAis().size()];
             for (int i = 0; i < is.length; ++i)
-                is[i] = indices.get(simulator.getAis().get(i).getClass());
+                is[i] = indices.get(match.getAis().get(i).getClazz());
             // TODO check if results are correct
             for (int i = 0; i < is.length; ++i)
                 for (int j = i + 1; j < is.length; ++j)
-                    if (w == i) {
-                        wins[is[i]][is[j]]++;
-                        losses[is[j]][is[i]]++;
-                    } else if (w == j) {
-                        losses[is[i]][is[j]]++;
-                        wins[is[j]][is[i]]++;
-                    } else {
-                        draws[is[i]][is[j]]++;
-                        draws[is[j]][is[i]]++;
-                    }
-            for (int i : is)
-                fireTableRowsUpdated(i, i);
+                    if (w == i)
+                        wins[is[i]][is[j]].increment();
+                    else if (w == j)
+                        wins[is[j]][is[i]].increment();
+                    else
+                        draws[Math.min(is[i], is[j])][Math.max(is[i], is[j])].increment();
+            ratings.add(match, w);
+            dirty.set(true);
         }
 
     }
@@ -288,14 +899,31 @@ public class Tournament implements Runnable {
     private Executor executor;
     private JFrame frame;
     private Model model;
+    private OpeningBook book;
+    private Journal journal;
 
-    // TODO save/load results of tournaments
-
-    public Tournament(Descriptor descriptor) {
+    public Tournament(Descriptor descriptor, OpeningBook book, Journal journal) {
         if (descriptor == null)
             throw new NullPointerException();
         model = new Model(descriptor);
         executor = new Executor(descriptor, model);
+        executor.setSandbox(new Sandbox(INITIALIZE_TIMEOUT, PLAY_TIMEOUT, MAX_OVERRUNS));
+        this.book = book;
+        if (book != null)
+            executor.addListener(book);
+        // Resume from completed matches
+        this.journal = journal;
+        if (journal != null) {
+            for (Map.Entry<Long, long[]> e : journal.getTotals().entrySet())
+                for (int o = 0; o < e.getValue().length; ++o)
+                    for (long n = 0; n < e.getValue()[o]; ++n)
+                        model.record(descriptor.getMatch(e.getKey()), o - 1);
+            for (Map.Entry<Long, Integer> e : journal.getResults().entrySet())
+                model.record(descriptor.getMatch(e.getKey()), e.getValue());
+            executor.setCursor(journal.getWatermark());
+            executor.addFilter(journal);
+            executor.addListener(journal);
+        }
         JTable table = new JTable(model);
         table.setAutoCreateRowSorter(true);
         JScrollPane scroll = new JScrollPane(table);
@@ -313,11 +941,38 @@ public class Tournament implements Runnable {
         frame.pack();
     }
 
+    public Tournament(Descriptor descriptor, OpeningBook book) {
+        this(descriptor, book, null);
+    }
+
+    public Tournament(Descriptor descriptor) {
+        this(descriptor, null);
+    }
+
     @Override
     public void run() {
         frame.setVisible(true);
-        executor.run();
+        model.start();
+        try {
+            executor.run();
+        } finally {
+            model.stop();
+        }
         frame.dispose();
+        if (book != null) {
+            try {
+                book.save();
+            } catch (IOException e) {
+                System.err.println("Failed to save opening book: " + e.getMessage());
+            }
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close journal: " + e.getMessage());
+            }
+        }
     }
 
 }
@@ -0,0 +1,355 @@
+package koth.system;
+
+import koth.game.*;
+import koth.util.ClassManager;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Optimize parameters of a <code>Tunable</code> AI against a pool of reference AIs, using simultaneous perturbation
+ * stochastic approximation (SPSA).
+ * Each iteration draws several random perturbations, and plays both perturbed configurations against every reference
+ * with a <code>MatchRunner</code> (both sides of a perturbation use the same seeds, hence spawn luck cancels out). All
+ * evaluations of an iteration run concurrently, one per thread, so that every core is busy until the iteration ends.
+ * Parameters are normalized by their bounds, and the current estimate is written to a checkpoint after each iteration,
+ * from which a later run resumes.
+ */
+public final class Tuner implements Runnable {
+
+    /**
+     * Notified after each iteration, with the new estimate and the average score of evaluated configurations.
+     */
+    public static interface Listener {
+
+        public void iterated(long iteration, Map<String, Double> parameters, double score);
+
+    }
+
+    private static final double ALPHA = 0.602, GAMMA = 0.101;
+    private static final String ITERATION_KEY = "tuner.iteration", SCORE_KEY = "tuner.score";
+
+    private final ClassManager.Factory<AI> candidate;
+    private final List<ClassManager.Factory<AI>> references;
+    private final ClassManager.Factory<Generator> generator;
+    private final Rules rules;
+    private final String[] names;
+    private final double[] min, max, x;
+    private final Set<MatchRunner> active;
+    private int games, perturbations, threads;
+    private double a, c, stability;
+    private long iterations, seed;
+    private Sandbox sandbox;
+    private File checkpoint;
+    private Listener listener;
+    private long iteration;
+    private double score;
+    private volatile boolean running;
+
+    /**
+     * Create a tuner of given AI, whose initial parameters are its defaults.
+     */
+    public Tuner(ClassManager.Factory<AI> candidate, List<ClassManager.Factory<AI>> references, ClassManager.Factory<Generator> generator, Rules rules) {
+        if (candidate == null || references == null || generator == null || rules == null)
+            throw new NullPointerException();
+        if (references.isEmpty())
+            throw new IllegalArgumentException();
+        AI instance = candidate.create();
+        if (!(instance instanceof Tunable))
+            throw new IllegalArgumentException(candidate.getName() + " is not tunable");
+        List<Tunable.Parameter> parameters = ((Tunable)instance).getParameters();
+        if (parameters.isEmpty())
+            throw new IllegalArgumentException(candidate.getName() + " has no parameter");
+        this.candidate = candidate;
+        this.references = new ArrayList<ClassManager.Factory<AI>>(references);
+        this.generator = generator;
+        this.rules = rules;
+        int n = parameters.size();
+        names = new String[n];
+        min = new double[n];
+        max = new double[n];
+        x = new double[n];
+        for (int i = 0; i < n; ++i) {
+            Tunable.Parameter p = parameters.get(i);
+            names[i] = p.getName();
+            min[i] = p.getMin();
+            max[i] = p.getMax();
+            x[i] = (p.getValue() - min[i]) / (max[i] - min[i]);
+        }
+        active = new HashSet<MatchRunner>();
+        threads = Runtime.getRuntime().availableProcessors();
+        perturbations = threads;
+        games = 16;
+        // Steps of 5% of the range, and probes of 10% of the range, at first iteration
+        stability = 10;
+        a = 0.05 * Math.pow(1 + stability, ALPHA);
+        c = 0.1;
+    }
+
+    /**
+     * Set how many games are played by each configuration against each reference, per iteration (rounded up to an even
+     * number, so that mirrored pairs are complete).
+     */
+    public void setGames(int games) {
+        if (games <= 0)
+            throw new IllegalArgumentException();
+        this.games = games + (games & 1);
+    }
+
+    /**
+     * Set how many perturbations are averaged per iteration (by default, one per thread).
+     */
+    public void setPerturbations(int perturbations) {
+        if (perturbations <= 0)
+            throw new IllegalArgumentException();
+        this.perturbations = perturbations;
+    }
+
+    /**
+     * Set how many evaluations run concurrently (by default, one per available processor).
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException();
+        this.threads = threads;
+    }
+
+    /**
+     * Set SPSA gains, in normalized units: step <code>a / (k + 1 + A)^0.602</code> and probe
+     * <code>c / (k + 1)^0.101</code> at iteration <code>k</code>.
+     */
+    public void setGains(double a, double c, double stability) {
+        if (a <= 0 || c <= 0 || c > 0.5 || stability < 0)
+            throw new IllegalArgumentException();
+        this.a = a;
+        this.c = c;
+        this.stability = stability;
+    }
+
+    /**
+     * Set how many iterations are run, including resumed ones (0 for no limit).
+     */
+    public void setIterations(long iterations) {
+        if (iterations < 0)
+            throw new IllegalArgumentException();
+        this.iterations = iterations;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setSandbox(Sandbox sandbox) {
+        this.sandbox = sandbox;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set file where the current estimate is stored (as properties), and load it if it exists.
+     */
+    public void setCheckpoint(File checkpoint) throws IOException {
+        this.checkpoint = checkpoint;
+        if (checkpoint == null || !checkpoint.exists())
+            return;
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(checkpoint);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        try {
+            for (int i = 0; i < names.length; ++i) {
+                String value = properties.getProperty(names[i]);
+                if (value != null)
+                    x[i] = clamp((Double.parseDouble(value) - min[i]) / (max[i] - min[i]));
+            }
+            iteration = Long.parseLong(properties.getProperty(ITERATION_KEY, "0"));
+            score = Double.parseDouble(properties.getProperty(SCORE_KEY, "0"));
+        } catch (NumberFormatException e) {
+            throw new IOException(checkpoint + " is not a valid checkpoint", e);
+        }
+    }
+
+    /**
+     * Get how many iterations were completed.
+     */
+    public synchronized long getIteration() {
+        return iteration;
+    }
+
+    /**
+     * Get average score of configurations evaluated at last iteration.
+     */
+    public synchronized double getScore() {
+        return score;
+    }
+
+    /**
+     * Get current estimate of parameters.
+     */
+    public synchronized Map<String, Double> getParameters() {
+        return values(x);
+    }
+
+    private Map<String, Double> values(double[] v) {
+        Map<String, Double> values = new LinkedHashMap<String, Double>();
+        for (int i = 0; i < names.length; ++i)
+            values.put(names[i], min[i] + v[i] * (max[i] - min[i]));
+        return values;
+    }
+
+    private static double clamp(double v) {
+        return Math.max(0, Math.min(1, v));
+    }
+
+    /**
+     * Get a factory which creates the candidate with given normalized parameters.
+     */
+    private ClassManager.Factory<AI> configure(double[] v) {
+        final Map<String, Double> values = values(v);
+        return new ClassManager.Factory<AI>(candidate.getClazz(), candidate.getName(), new ClassManager.Setup<AI>() {
+            @Override
+            public void setup(AI instance) {
+                for (Map.Entry<String, Double> e : values.entrySet())
+                    ((Tunable)instance).setParameter(e.getKey(), e.getValue());
+            }
+        });
+    }
+
+    private Callable<Double> evaluate(final ClassManager.Factory<AI> configuration, final ClassManager.Factory<AI> reference, final long seed) {
+        return new Callable<Double>() {
+            @Override
+            public Double call() {
+                MatchRunner runner = new MatchRunner();
+                runner.setSeed(seed);
+                runner.setSandbox(sandbox);
+                synchronized (active) {
+                    if (!running)
+                        return 0.5;
+                    active.add(runner);
+                }
+                try {
+                    MatchRunner.Result r = runner.run(Arrays.asList(configuration, reference), generator, rules, games, 1);
+                    return r.getGames() == 0 ? 0.5 : (r.getWins(0) + 0.5 * r.getDraws()) / r.getGames();
+                } finally {
+                    synchronized (active) {
+                        active.remove(runner);
+                    }
+                }
+            }
+        };
+    }
+
+    private void step(ExecutorService service) throws InterruptedException, ExecutionException {
+        long k = getIteration();
+        double ck = c / Math.pow(k + 1, GAMMA), ak = a / Math.pow(k + 1 + stability, ALPHA);
+        Random random = new Random(Game.mix(seed ^ k));
+        int n = names.length, m = references.size();
+        double[] current;
+        synchronized (this) {
+            current = x.clone();
+        }
+        double[][] deltas = new double[perturbations][n];
+        List<Future<Double>> futures = new ArrayList<Future<Double>>();
+        for (int p = 0; p < perturbations; ++p) {
+            double[] plus = new double[n], minus = new double[n];
+            for (int i = 0; i < n; ++i) {
+                deltas[p][i] = random.nextBoolean() ? 1 : -1;
+                plus[i] = clamp(current[i] + ck * deltas[p][i]);
+                minus[i] = clamp(current[i] - ck * deltas[p][i]);
+            }
+            // Both sides of a perturbation use the same seeds (common random numbers)
+            long s = Game.mix(seed ^ Game.mix(k * perturbations + p));
+            ClassManager.Factory<AI> fp = configure(plus), fm = configure(minus);
+            for (int r = 0; r < m; ++r) {
+                futures.add(service.submit(evaluate(fp, references.get(r), s + r)));
+                futures.add(service.submit(evaluate(fm, references.get(r), s + r)));
+            }
+        }
+        double[] gradient = new double[n];
+        double total = 0;
+        for (int p = 0; p < perturbations; ++p) {
+            double fp = 0, fm = 0;
+            for (int r = 0; r < m; ++r) {
+                fp += futures.get(2 * (p * m + r)).get();
+                fm += futures.get(2 * (p * m + r) + 1).get();
+            }
+            fp /= m;
+            fm /= m;
+            total += fp + fm;
+            for (int i = 0; i < n; ++i)
+                gradient[i] += (fp - fm) / (2 * ck * deltas[p][i]) / perturbations;
+        }
+        if (!running)
+            return;
+        synchronized (this) {
+            // Score is maximized
+            for (int i = 0; i < n; ++i)
+                x[i] = clamp(current[i] + ak * gradient[i]);
+            score = total / (2 * perturbations);
+            iteration = k + 1;
+        }
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Double> e : getParameters().entrySet())
+            properties.setProperty(e.getKey(), Double.toString(e.getValue()));
+        properties.setProperty(ITERATION_KEY, Long.toString(getIteration()));
+        properties.setProperty(SCORE_KEY, Double.toString(getScore()));
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, "Parameters of " + candidate.getName());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        try {
+            while (running && (iterations == 0 || getIteration() < iterations)) {
+                step(service);
+                if (!running)
+                    break;
+                if (checkpoint != null)
+                    save();
+                if (listener != null)
+                    listener.iterated(getIteration(), getParameters(), getScore());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Evaluation failed", e.getCause());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write checkpoint " + checkpoint, e);
+        } finally {
+            running = false;
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * Stop tuning (the current iteration is discarded, and the last checkpoint is kept).
+     */
+    public void stop() {
+        synchronized (active) {
+            running = false;
+            for (MatchRunner r : active)
+                r.stop();
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package koth.system;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Resources used by AI calls (wall time, thread CPU time and allocated bytes), aggregated into histograms.
+ * Each metric is stored in logarithmic buckets (bucket <code>i</code> holds values in <code>[2^(i-1), 2^i)</code>), hence
+ * percentiles are approximated by power-of-two upper bounds. Metrics that are not supported by the JVM are ignored.
+ */
+public final class Usage {
+
+    public static enum Metric {
+        WALL, CPU, ALLOCATED
+    }
+
+    private static final int BUCKETS = 65;
+    private static final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    private static final Method allocatedBytes = createAllocatedBytes();
+
+    /**
+     * Measure of a single call, started on the thread that runs it.
+     */
+    public final class Meter {
+
+        private final long wall, cpu, allocated;
+
+        private Meter() {
+            wall = System.nanoTime();
+            cpu = getCpuTime();
+            allocated = getAllocatedBytes();
+        }
+
+        /**
+         * Stop measuring (must be called by the thread that started this meter), and add the call to its usage.
+         */
+        public void stop() {
+            long c = getCpuTime(), a = getAllocatedBytes();
+            add(System.nanoTime() - wall, cpu < 0 || c < 0 ? -1 : c - cpu, allocated < 0 || a < 0 ? -1 : a - allocated);
+        }
+
+    }
+
+    private final long[][] histograms;
+    private final long[] totals, counts;
+    private long calls;
+
+    /**
+     * Create an empty usage.
+     */
+    public Usage() {
+        histograms = new long[Metric.values().length][BUCKETS];
+        totals = new long[Metric.values().length];
+        counts = new long[Metric.values().length];
+    }
+
+    private static long getCpuTime() {
+        try {
+            return bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : -1;
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    private static Method createAllocatedBytes() {
+        // Resolved at runtime, to keep compatibility with older Java versions (and Thread.getId is deprecated)
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return null;
+        try {
+            return com.sun.management.ThreadMXBean.class.getMethod("getCurrentThreadAllocatedBytes");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        if (allocatedBytes == null)
+            return -1;
+        try {
+            return (Long)allocatedBytes.invoke(bean);
+        } catch (ReflectiveOperationException e) {
+            // Also thrown if the metric is not supported
+            return -1;
+        }
+    }
+
+    private static int bucket(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Start measuring a call on current thread.
+     */
+    public Meter start() {
+        return new Meter();
+    }
+
+    /**
+     * Add a call (negative values are ignored).
+     * @param wall wall time, in nanoseconds
+     * @param cpu thread CPU time, in nanoseconds
+     * @param allocated allocated bytes
+     */
+    public synchronized void add(long wall, long cpu, long allocated) {
+        long[] values = {wall, cpu, allocated};
+        for (int i = 0; i < values.length; ++i)
+            if (values[i] >= 0) {
+                histograms[i][bucket(values[i])]++;
+                totals[i] += values[i];
+                counts[i]++;
+            }
+        ++calls;
+    }
+
+    /**
+     * Add all calls of given usage.
+     */
+    public void add(Usage other) {
+        long[][] h;
+        long[] t, c;
+        long n;
+        synchronized (other) {
+            h = new long[other.histograms.length][];
+            for (int i = 0; i < h.length; ++i)
+                h[i] = other.histograms[i].clone();
+            t = other.totals.clone();
+            c = other.counts.clone();
+            n = other.calls;
+        }
+        synchronized (this) {
+            for (int i = 0; i < h.length; ++i) {
+                for (int j = 0; j < BUCKETS; ++j)
+                    histograms[i][j] += h[i][j];
+                totals[i] += t[i];
+                counts[i] += c[i];
+            }
+            calls += n;
+        }
+    }
+
+    /**
+     * Get how many calls were measured.
+     */
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    /**
+     * Get the sum of given metric over all calls.
+     */
+    public synchronized long getTotal(Metric metric) {
+        return totals[metric.ordinal()];
+    }
+
+    /**
+     * Get the average of given metric per call, or 0 if unknown.
+     */
+    public synchronized double getMean(Metric metric) {
+        long c = counts[metric.ordinal()];
+        return c == 0 ? 0 : (double)totals[metric.ordinal()] / c;
+    }
+
+    /**
+     * Get an upper bound of the <code>q</code>-quantile of given metric (<code>q</code> in <code>[0, 1]</code>), or 0 if unknown.
+     */
+    public synchronized long getPercentile(Metric metric, double q) {
+        long[] h = histograms[metric.ordinal()];
+        long c = counts[metric.ordinal()];
+        if (c == 0)
+            return 0;
+        long rank = (long)Math.ceil(q * c);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += h[i];
+            if (seen >= rank && seen > 0)
+                return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : 1L << i;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Get a copy of the histogram of given metric.
+     */
+    public synchronized long[] getHistogram(Metric metric) {
+        return histograms[metric.ordinal()].clone();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Usage{" + "calls=" + calls +
+            ", wall=" + getMean(Metric.WALL) +
+            ", cpu=" + getMean(Metric.CPU) +
+            ", allocated=" + getMean(Metric.ALLOCATED) + "}";
+    }
+
+}
@@ -11,17 +11,22 @@ import koth.util.*;
 public class ActionSequence implements Comparable<ActionSequence>, Iterable<Action> {
 	private GameContext context;
 	private ArrayList<Action> actions;
+	private int cost;
 	
 	public ActionSequence(GameContext c, ArrayList<Action> ac) {
 		context = c;
 		actions = new ArrayList<>();
 		actions.addAll(ac);
+		cost = computeCost();
 	}
 	
 	public ActionSequence(GameContext c, Pawn pawn, PotentialAction a) {
+		this(c, pawn, a, c.path(c.getGame().getPawn(pawn).getLocation(), a.getPos(), c.getTeamPawns()));
+	}
+	
+	public ActionSequence(GameContext c, Pawn pawn, PotentialAction a, Path path) {
 		context = c;
 		pawn = context.getGame().getPawn(pawn);
-		Path path = context.path(pawn.getLocation(), a.getPos(), context.getTeamPawns());
 		actions = new ArrayList<>();
 		for(Move m : path) {
 			actions.add(new Action(pawn, m));
@@ -32,6 +37,7 @@ public class ActionSequence implements Comparable<ActionSequence>, Iterable<Acti
 		if(!a.getMove().equals(Move.None)) {
 			actions.add(new Action(pawn, a.getMove()));
 		}
+		cost = computeCost();
 	}
 	
 	public ActionSequence(GameContext c, Pawn pawn, Vector goal, boolean removeLast) {
@@ -45,6 +51,7 @@ public class ActionSequence implements Comparable<ActionSequence>, Iterable<Acti
 		if(removeLast && actions.size() > 0) {
 			actions.remove(actions.size() - 1);
 		}
+		cost = computeCost();
 	}
 	
 	public ActionSequence(GameContext c, Pawn pawn, Vector goal) {
@@ -52,6 +59,10 @@ public class ActionSequence implements Comparable<ActionSequence>, Iterable<Acti
 	}
 	
 	public int getCost() {
+		return cost;
+	}
+	
+	private int computeCost() {
 		int cost = 0;
 		Map<Pawn, Stance> map = new HashMap<>();
 		for(Pawn p : context.getGame().getPawns()) {
@@ -73,7 +84,7 @@ public class ActionSequence implements Comparable<ActionSequence>, Iterable<Acti
 
 	@Override
 	public int compareTo(ActionSequence o) {
-		return -Float.compare(o.getCost(), getCost());
+		return Integer.compare(cost, o.cost);
 	}
 
 	@Override
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -16,12 +17,18 @@ public class GameContext {
 	private Rules rules;
 	private int team;
 	private Map<Pawn, PawnData> pawnData;
+	private Random random;
 	
 	public GameContext(Game g, Rules r, int t) {
+		this(g, r, t, new Random());
+	}
+	
+	public GameContext(Game g, Rules r, int t, Random rnd) {
 		pawnData = new HashMap<>();
 		game = g;
 		rules = r;
 		team = t;
+		random = rnd;
 	}
 	
 	public void update(Game g) {
@@ -39,6 +46,10 @@ public class GameContext {
 		return rules;
 	}
 	
+	public Random getRandom() {
+		return random;
+	}
+	
 	public Game getGame() {
 		return game;
 	}
@@ -63,22 +74,6 @@ public class GameContext {
 	}
 	
 	public Path pathObstacles(Vector beg, Vector end, Set<Vector> obstacles) {
-		class PathData
-		{
-			public PathData(Vector po, PathData par) {
-				pos = po;
-				parent = par;
-				weight = parent == null ? 0 : parent.weight + 1;
-			}
-			
-			public PathData(Vector p) {
-				this(p, null);
-			}
-			
-			public Vector pos;
-			public PathData parent;
-			public int weight;
-		}
 		if(game.isVoid(beg)) {
 			System.err.println("Starting point in void");
 		}
@@ -88,47 +83,16 @@ public class GameContext {
 		if(end.equals(beg)) {
 			return Path.emptyPath();
 		}
-		obstacles = Utils.removed(obstacles, beg, end);
-		Map<Vector, PathData> map = new HashMap<>();
-		List<PathData> opened = new ArrayList<>();
-		opened.add(new PathData(beg));
-		while(true) {
-			if(opened.isEmpty()) {
-				return Path.emptyPath();
-			}
-			PathData current = null;
-			for(PathData c : opened) {
-				if(current == null || current.pos.manhattan(end) > c.pos.manhattan(end)) {
-					current = c;
-				}
-			}
-			opened.remove(current);
-			map.put(current.pos, current);
-			for(Vector dir : Utils.shuffled(Utils.dirs)) {
-				Vector pos = current.pos.add(dir);
-				if(pos.equals(end)) {
-					ArrayList<Vector> positions = new ArrayList<>();
-					positions.add(end);
-					while(current != null) {
-						positions.add(current.pos);
-						current = current.parent;
-					}
-					Utils.reverse(positions);
-					return new Path(positions);
-				}
-				if(!game.isVoid(pos) && !obstacles.contains(pos)) {
-					PathData pd = map.get(pos);
-					if(pd != null) {
-						if(pd.weight > current.weight + 1) {
-							pd.weight = current.weight + 1;
-							pd.parent = current;
-						}
-					} else {
-						opened.add(new PathData(pos, current));
-					}
-				}
-			}
+		return new PathTree(game, beg, Utils.removed(obstacles, beg), -1, random).path(end);
+	}
+	
+	public PathTree paths(Pawn pawn, int maxDistance) {
+		Set<Vector> obs = new HashSet<>();
+		for(Pawn p : getTeamPawns()) {
+			obs.add(p.getLocation());
 		}
+		obs.remove(pawn.getLocation());
+		return new PathTree(game, pawn.getLocation(), obs, maxDistance, random);
 	}
 	
 	public Path path(Vector beg, Vector end, Set<Pawn> obstacles) {
@@ -4,29 +4,54 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Random;
 
 import koth.game.*;
 import koth.util.*;
 
-public class Herp implements AI {
+public class Herp implements AI, Seeded, Resettable, Tunable {
 	
 	private GameContext context;
-    private Map<Vector, Map<Vector, Integer>> distances;
 
 	private Iterator<Action> actionSequence;
 	
 	private boolean printStackTrace = false;
+	
+	private Random random = new Random();
+	
+	// Fraction of action points that may be spent on a kill
+	private double killClamp = Priority.Kill.getClampFactor();
+
+	@Override
+	public List<Parameter> getParameters() {
+		return Collections.singletonList(new Parameter("killClamp", 0, 1, killClamp));
+	}
+
+	@Override
+	public void setParameter(String name, double value) {
+		if(name.equals("killClamp")) {
+			killClamp = value;
+		}
+	}
+
+	@Override
+	public void reset() {
+		actionSequence = null;
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		random = new Random(seed);
+	}
 
 	@Override
 	public void initialize(Game game, int team, Rules rules) {
-		context = new GameContext(game, rules, team);
-		distances = Algorithms.distances(game.getBoard().getTiles());
+		context = new GameContext(game, rules, team, random);
 	}
 
 	@Override
 	public Action play(Game game, int actions) {
+		context.update(game);
 		if(isBegin(actions)) {
 			begin();
 		}
@@ -46,19 +71,31 @@ public class Herp implements AI {
 	
 	private boolean tryKill(int actions) {
 		List<PotentialAction> potentialKills = context.killActions(context.getEnemies());
-		List<ActionSequence> killSequences = new ArrayList<>();
+		Rules rules = context.getRules();
+		ActionSequence best = null;
+		int limit = Math.min(actions, Priority.clamped(actions, killClamp));
 		for(Pawn pawn : context.getTeamPawns()) {
+			// Manhattan distance is a lower bound, prune before searching paths
+			int budget = best == null ? limit : Math.min(limit, best.getCost() - 1);
+			List<PotentialAction> candidates = new ArrayList<>();
 			for(PotentialAction k : potentialKills) {
-				ActionSequence seq = k.toPawnAction(context, pawn);
-				if(seq.getCost() <= actions) {
-					killSequences.add(seq);
+				if(k.getCost(rules, pawn, pawn.getLocation().manhattan(k.getPos())) <= budget) {
+					candidates.add(k);
 				}
 			}
-		}
-		ActionSequence best = null;
-		for(ActionSequence seq : killSequences) {
-			if(best == null || seq.getCost() < best.getCost()) {
-				best = seq;
+			if(candidates.isEmpty()) {
+				continue;
+			}
+			PathTree tree = context.paths(pawn, rules.getMoveCost() == 0 ? -1 : budget / rules.getMoveCost());
+			for(PotentialAction k : candidates) {
+				int distance = tree.distance(k.getPos());
+				if(distance < 0) {
+					continue;
+				}
+				int cost = k.getCost(rules, pawn, distance);
+				if(cost <= limit && (best == null || cost < best.getCost())) {
+					best = new ActionSequence(context, pawn, k, tree.path(k.getPos()));
+				}
 			}
 		}
 		if(best != null) {
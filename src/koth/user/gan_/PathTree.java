@@ -0,0 +1,72 @@
+package koth.user.gan_;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import koth.game.*;
+import koth.util.*;
+
+public class PathTree {
+
+	private Vector root;
+	private Map<Vector, Vector> parents;
+	private Map<Vector, Integer> distances;
+
+	public PathTree(Game game, Vector root, Set<Vector> obstacles, int maxDistance) {
+		this(game, root, obstacles, maxDistance, new Random());
+	}
+	
+	public PathTree(Game game, Vector root, Set<Vector> obstacles, int maxDistance, Random random) {
+		this.root = root;
+		parents = new HashMap<>();
+		distances = new HashMap<>();
+		distances.put(root, 0);
+		Vector[] dirs = Utils.shuffled(Utils.dirs, random);
+		ArrayDeque<Vector> opened = new ArrayDeque<>();
+		opened.add(root);
+		while(!opened.isEmpty()) {
+			Vector current = opened.poll();
+			int weight = distances.get(current);
+			if(maxDistance >= 0 && weight >= maxDistance) {
+				continue;
+			}
+			for(Vector dir : dirs) {
+				Vector pos = current.add(dir);
+				if(game.isVoid(pos) || distances.containsKey(pos)) {
+					continue;
+				}
+				distances.put(pos, weight + 1);
+				parents.put(pos, current);
+				// Obstacles can be reached, but not crossed
+				if(!obstacles.contains(pos)) {
+					opened.add(pos);
+				}
+			}
+		}
+	}
+
+	public Vector getRoot() {
+		return root;
+	}
+
+	public int distance(Vector end) {
+		Integer d = distances.get(end);
+		return d == null ? -1 : d;
+	}
+
+	public Path path(Vector end) {
+		if(!distances.containsKey(end)) {
+			return Path.emptyPath();
+		}
+		ArrayList<Vector> positions = new ArrayList<>();
+		for(Vector pos = end; pos != null; pos = parents.get(pos)) {
+			positions.add(pos);
+		}
+		Utils.reverse(positions);
+		return new Path(positions);
+	}
+}
@@ -26,6 +26,17 @@ public class PotentialAction {
 		return move;
 	}
 	
+	public int getCost(Rules rules, Pawn p, int distance) {
+		int cost = distance * rules.getMoveCost();
+		if(!stance.equals(p.getStance())) {
+			cost += rules.getStanceCost();
+		}
+		if(!move.equals(Move.None)) {
+			cost += rules.getMoveCost();
+		}
+		return cost;
+	}
+	
 	public ActionSequence toPawnAction(GameContext c, Pawn p) {
 		return new ActionSequence(c, c.getGame().getPawn(p), this);
 	}
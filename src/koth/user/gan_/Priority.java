@@ -16,7 +16,15 @@ public enum Priority {
 	}
 	
 	
+	public double getClampFactor() {
+		return clampFactor;
+	}
+	
 	public int clamped(int actions) {
+		return clamped(actions, clampFactor);
+	}
+	
+	public static int clamped(int actions, double clampFactor) {
 		return Math.max(1, (int)Math.ceil(actions * clampFactor));
 	}
 }
@@ -20,8 +20,11 @@ public class Utils {
 
 	
 	public static <E> E[]shuffled(E[] t) {
+		return shuffled(t, new Random());
+	}
+	
+	public static <E> E[]shuffled(E[] t, Random random) {
 		E[] result = t.clone();
-		Random random = new Random();
 		for (int i = result.length - 1; i > 0; i--) {
 			int index = random.nextInt(i + 1);
 			E temp = result[index];
@@ -2,6 +2,7 @@
 package koth.user.jlb;
 
 import koth.game.Board;
+import koth.game.Deterministic;
 import koth.game.Generator;
 import koth.util.Vector;
 
@@ -29,7 +30,7 @@ import java.util.Set;
  *   .............
  * }</pre>
  */
-public class Cross implements Generator {
+public class Cross implements Generator, Deterministic {
 
     private static int at(int x, int y, int outer, int inner, int bridgeWidth, int bridgeLength) {
         // Symmetric
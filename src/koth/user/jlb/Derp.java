@@ -9,11 +9,21 @@ import java.util.Random;
  * This dummy AI chooses a random pawn, a random stance and a random direction.
  * To avoid early suicide, it tries not to walk into the deep void.
  */
-public class Derp implements AI {
+public class Derp implements AI, Seeded, Resettable {
 
     private final Random random = new Random();
     private int team;
 
+    @Override
+    public void reset() {
+        // Random generator is reseeded, and team index is set by initialize
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
     @Override
     public void initialize(Game game, int team, Rules rules) {
         // We only care about our team index
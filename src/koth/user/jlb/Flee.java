@@ -10,15 +10,24 @@ import java.util.*;
 /**
  * This AI tries to avoid enemies.
  */
-public class Flee implements AI {
+public class Flee implements AI, Resettable {
 
     private int team;
+    private Board board;
     private Map<Vector, Map<Vector, Integer>> distances;
 
+    @Override
+    public void reset() {
+        // Distances only depend on the board, and are kept if the next game uses the same one
+    }
+
     @Override
     public void initialize(Game game, int team, Rules rules) {
         this.team = team;
-        distances = Algorithms.distances(game.getBoard().getTiles());
+        if (game.getBoard() != board) {
+            board = game.getBoard();
+            distances = Algorithms.distances(board.getTiles());
+        }
     }
 
     @Override
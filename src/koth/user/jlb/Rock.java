@@ -6,10 +6,15 @@ import koth.game.*;
 /**
  * This dummy AI does not move and always choose Rock stance.
  */
-public class Rock implements AI {
+public class Rock implements AI, Resettable {
 
     private int team;
 
+    @Override
+    public void reset() {
+        // No state besides team index
+    }
+
     @Override
     public void initialize(Game game, int team, Rules rules) {
         // We only care about our team index
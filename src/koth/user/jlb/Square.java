@@ -21,7 +21,7 @@ import java.util.*;
  *   .........
  * }</pre>
  */
-public class Square implements Generator {
+public class Square implements Generator, Deterministic {
 
     public static Board create(int teams, int size) {
         if (size <= 0)
@@ -128,6 +128,15 @@ public final class ClassManager {
         return classes;
     }
 
+    /**
+     * Configure instances created by a factory.
+     */
+    public static interface Setup<T> {
+
+        public void setup(T instance);
+
+    }
+
     /**
      * Builder for classes of type <code>T</code>.
      */
@@ -135,15 +144,25 @@ public final class ClassManager {
 
         private final Class<T> clazz;
         private final String name;
+        private final Setup<? super T> setup;
 
         /**
-         * Create a new factory for given class with given name.
+         * Create a new factory for given class with given name, which configures each instance with given setup.
+         * Factories with distinct setups are distinct, even if they build the same class.
          */
-        public Factory(Class<T> clazz, String name) {
+        public Factory(Class<T> clazz, String name, Setup<? super T> setup) {
             if (clazz == null || name == null)
                 throw new NullPointerException();
             this.clazz = clazz;
             this.name = name;
+            this.setup = setup;
+        }
+
+        /**
+         * Create a new factory for given class with given name.
+         */
+        public Factory(Class<T> clazz, String name) {
+            this(clazz, name, null);
         }
 
         /**
@@ -164,11 +183,15 @@ public final class ClassManager {
          * Create a new instance of this class.
          */
         public T create() {
+            T instance;
             try {
-                return clazz.newInstance();
+                instance = clazz.newInstance();
             } catch (Exception e) {
                 throw new RuntimeException("Failed to instanciate " + clazz + "!", e);
             }
+            if (setup != null)
+                setup.setup(instance);
+            return instance;
         }
 
         @Override
@@ -177,12 +200,12 @@ public final class ClassManager {
         }
 
         public boolean equals(Factory<?> o) {
-            return o != null && clazz.equals(o.clazz);
+            return o != null && clazz.equals(o.clazz) && setup == o.setup;
         }
 
         @Override
         public int hashCode() {
-            return clazz.hashCode();
+            return clazz.hashCode() ^ (setup == null ? 0 : System.identityHashCode(setup));
         }
 
         @Override
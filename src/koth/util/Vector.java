@@ -3,7 +3,7 @@ package koth.util;
 
 import koth.game.Move;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * Immutable 2D integral vector
@@ -12,7 +12,16 @@ public final class Vector {
 
     private final int x, y;
 
-    private static final Random random = new Random();
+    // Each thread has its own generator, split from a common root, so that workers do not contend on a shared seed
+    private static final SplittableRandom root = new SplittableRandom();
+    private static final ThreadLocal<SplittableRandom> random = new ThreadLocal<SplittableRandom>() {
+        @Override
+        protected SplittableRandom initialValue() {
+            synchronized (root) {
+                return root.split();
+            }
+        }
+    };
 
     public Vector() {
         x = y = 0;
@@ -152,7 +161,15 @@ public final class Vector {
     }
 
     public static Vector random(int xmax, int ymax) {
-        return new Vector(random.nextInt(xmax), random.nextInt(ymax));
+        SplittableRandom r = random.get();
+        return new Vector(r.nextInt(xmax), r.nextInt(ymax));
+    }
+
+    /**
+     * Reset the generator used by <code>random</code> in the current thread (other threads are not affected).
+     */
+    public static void setSeed(long seed) {
+        random.set(new SplittableRandom(seed));
     }
 
     public int sum() {